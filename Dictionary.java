@@ -1,52 +1,121 @@
 package text.vectorization;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class creates numeric mapping to words in the vocabulary so that we can create vectors later.
  * Use a Parser to parse data first and add the tokens to dictionary. There no support for parsing, stemming , stop words elimination here.
  * It can be used to create sparse matrix of text samples compatible with matlab.  
+ * Dictionary is thread safe, many parser threads can add terms at the same time. Ids are assigned atomically 
+ * and stay dense from 1 to size(). When documents are added from several threads use addDocument, or 
+ * beginDocument, addTerms and endDocument. These keep the terms of a document only until the document ends, 
+ * so memory is bounded by the size of the vocabulary.
  * @author Apurv
  */
-public class Dictionary {
+public class Dictionary implements IdfSource {
 	
 	/**
 	 * number of documents
 	 */
-	private int docs;
+	private final AtomicInteger docs;
+	/**
+	 * last id handed out, ids start at 1
+	 */
+	private final AtomicInteger lastId;
 	/**
 	 * thread safe map
 	 */
 	private ConcurrentHashMap<String, Integer> dictionary;
 	/**
-	 * words in documents
+	 * words in documents added through add, an entry is dropped once the doc count moves past it
+	 */
+	private ConcurrentHashMap<Integer, Set<String>> termMap;	
+	/**
+	 * words of the document each thread is currently adding through beginDocument
+	 */
+	private final ThreadLocal<HashSet<String>> currentDocument;
+	/**
+	 * reverse index, the term of each id. Grown and written under the lock of this dictionary.
+	 */
+	private volatile String[] terms;
+	/**
+	 * idf indexed by term id, filled by freezeIdf
+	 */
+	private volatile double[] idfTable;
+	/**
+	 * index of the terms by their characters for lookups on token buffers, see termIndex
 	 */
-	private ConcurrentHashMap<Integer, HashSet<String>> termMap;	
+	private volatile TermIndex termIndex;
 	/**
-	 * inverse document frequency
+	 * incremented when prune reassigns ids, an index of an older generation is dropped
 	 */
-	private ConcurrentHashMap<String, Double> idf;
+	private volatile int generation;
+	
+	/**
+	 * Variants of inverse document frequency. N is the doc count and df the number of documents containing the term.
+	 */
+	public enum IdfSmoothing {
+		/** log(N / df) */
+		PLAIN,
+		/** log((1 + N) / (1 + df)) + 1, never zero and defined for unseen terms */
+		SMOOTH,
+		/** log((N - df) / df), clipped at zero for terms found in more than half of the documents */
+		PROBABILISTIC;
+		
+		double idf(double docs, double df){
+			switch(this){
+			case SMOOTH:
+				return Math.log((1 + docs) / (1 + df)) + 1;
+			case PROBABILISTIC:
+				return Math.max(0d, Math.log((docs - df) / df));
+			default:
+				return Math.log(docs / df);
+			}
+		}
+	}
+	/**
+	 * document frequency of each term, used for inverse document frequency
+	 */
+	private ConcurrentHashMap<String, LongAdder> idf;
 	
 	public Dictionary(){
-		this.docs = 0;
+		this.docs = new AtomicInteger();
+		this.lastId = new AtomicInteger();
 		dictionary = new ConcurrentHashMap<String, Integer>();
-		idf = new ConcurrentHashMap<String, Double>();
-		termMap = new ConcurrentHashMap<Integer, HashSet<String>>();
+		idf = new ConcurrentHashMap<String, LongAdder>();
+		termMap = new ConcurrentHashMap<Integer, Set<String>>();
+		currentDocument = new ThreadLocal<HashSet<String>>();
+		terms = new String[1024];
 	}
 	/**
 	 * @return the docs
 	 */
 	public int getDocs() {
-		return docs;
+		return docs.get();
 	}
 	/**
-	 * This method increments the doc count by 1.
+	 * This method increments the doc count by 1. Terms of the finished document are no longer kept.
+	 * @return the new doc count
 	 */
-	public void incrementDocCount(){
-		this.docs++;
+	public int incrementDocCount(){
+		int count = this.docs.incrementAndGet();
+		this.termMap.remove(count - 1);
+		return count;
 	}
 	/**
 	 * gets the numeric mapping of the word. This can be used for vectorization.
@@ -63,18 +132,72 @@ public class Dictionary {
 			return dictionary.get(key);
 		return null;
 	}
+	/**
+	 * gets the numeric mapping of the word without boxing or exceptions. 
+	 * @param term
+	 * @return the id of the term, 0 if the term is not in the dictionary
+	 */
+	public int id(String term){
+		Integer id = dictionary.get(term);
+		return id == null ? 0 : id;
+	}
+	/**
+	 * Builds the TF vector of a document from its terms, keys are term ids. 
+	 * Terms which are not in the dictionary are skipped. The dictionary is not changed.
+	 * @param terms
+	 * @return
+	 */
+	public Vector toVector(List<String> terms){
+		Vector v = new Vector(terms.size());
+		for(int i = 0; i < terms.size(); i++){
+			Integer id = dictionary.get(terms.get(i));
+			if(id != null)
+				v.increment(id, 1d);
+		}
+		return v;
+	}
+	/**
+	 * Looks up the term in buffer[offset, offset + length), without creating a String for terms in the character 
+	 * index. Terms added after the index was built are found through a String until enough of them are looked up 
+	 * to pay for rebuilding the index, so lookups may be mixed with adds.
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return the id of the term, 0 if the term is not in the dictionary
+	 */
+	public int id(char[] buffer, int offset, int length){
+		return id(termIndex(), buffer, offset, length);
+	}
+	/**
+	 * Builds the TF vector of a text by streaming the tokens of the parser, no token list and no token Strings 
+	 * are built. Terms which are not in the dictionary are skipped. The dictionary is not changed.
+	 * @param parser
+	 * @param text
+	 * @return
+	 */
+	public Vector toVector(Parser parser, CharSequence text){
+		final Vector v = new Vector();
+		final TermIndex index = termIndex();
+		parser.parse(text, new TokenConsumer(){
+			public void token(char[] buffer, int offset, int length){
+				int id = id(index, buffer, offset, length);
+				if(id != 0)
+					v.increment(id, 1d);
+			}
+		});
+		return v;
+	}
 	/**
 	 * This method adds words to the dictionary from the given Iterable type.
+	 * Terms are counted for the current document, see getDocs.
 	 * @param data
 	 */
 	public void add(Iterable<String> data){
 		Iterator<String> iter = data.iterator();
 		while(iter.hasNext()){
 			String s = iter.next();
-			if(!dictionary.containsKey(s)){
-				dictionary.put(s, dictionary.size() + 1);
-				termDocCount(this.docs, s);
-			}
+			assignId(s);
+			termDocCount(this.docs.get(), s);
 		}
 	}
 	/**
@@ -82,12 +205,53 @@ public class Dictionary {
 	 * @param data
 	 */
 	public void add(String data){
-		String s = data;
-		if(!dictionary.containsKey(s)){
-			dictionary.put(s, dictionary.size() + 1);
-			termDocCount(this.docs, s);
+		assignId(data);
+		termDocCount(this.docs.get(), data);
+	}
+	/**
+	 * Adds all the terms of one document and counts the document. 
+	 * Each term is counted once for document frequency however often it occurs.
+	 * Safe to call from several threads at the same time.
+	 * @param terms
+	 * @return the new doc count
+	 */
+	public int addDocument(Iterable<String> terms){
+		beginDocument();
+		addTerms(terms);
+		return endDocument();
+	}
+	/**
+	 * Starts a document for the calling thread. Add its terms with addTerms and finish it with endDocument.
+	 */
+	public void beginDocument(){
+		currentDocument.set(new HashSet<String>());
+	}
+	/**
+	 * Adds terms to the document the calling thread has begun. Can be called several times per document.
+	 * @param terms
+	 */
+	public void addTerms(Iterable<String> terms){
+		HashSet<String> termSet = currentDocument.get();
+		if(termSet == null)
+			throw new IllegalStateException("Call beginDocument before adding terms");
+		Iterator<String> iter = terms.iterator();
+		while(iter.hasNext()){
+			String s = iter.next();
+			assignId(s);
+			if(termSet.add(s))
+				incrementDocFrequency(s);
 		}
 	}
+	/**
+	 * Finishes the document the calling thread has begun, counts it and throws away its term set.
+	 * @return the new doc count
+	 */
+	public int endDocument(){
+		if(currentDocument.get() == null)
+			throw new IllegalStateException("Call beginDocument before ending a document");
+		currentDocument.remove();
+		return this.docs.incrementAndGet();
+	}
 	/**
 	 * Checks if the word is found the contextual vocabulary
 	 * @param key
@@ -98,9 +262,24 @@ public class Dictionary {
 			return true;
 		return false;
 	}	
+	/**
+	 * Reverse lookup of a term id in constant time, use it to invert a vector.
+	 * @param id
+	 * @return the term, null if no term has this id
+	 */
+	public String term(int id){
+		String[] t = this.terms;
+		if(id < 1)
+			return null;
+		if(id < t.length && t[id] != null)
+			return t[id];
+		//the id may have just been assigned by another thread, read again under the lock
+		synchronized(this){
+			return id < this.terms.length ? this.terms[id] : null;
+		}
+	}
 	/**
 	 * This method returns the iterator over dictionary. 
-	 * This method is used for inverting a vector
 	 * @return
 	 */
 	public Iterator<Entry<String, Integer>> iterator(){
@@ -119,51 +298,359 @@ public class Dictionary {
 	 * @return
 	 */
 	public Double idf(String term){
-		if(idf.containsKey(term)){
-			Double res = Math.log(this.docs / idf.get(term));
+		LongAdder df = idf.get(term);
+		if(df != null){
+			Double res = IdfSmoothing.PLAIN.idf(this.docs.get(), df.sum());
 			return res;
 		}
 		return null;
 	}
+	/**
+	 * Computes the plain idf of every term once and keeps it in an array indexed by term id.
+	 * @see #freezeIdf(IdfSmoothing)
+	 */
+	public void freezeIdf(){
+		freezeIdf(IdfSmoothing.PLAIN);
+	}
+	/**
+	 * Computes the idf of every term once and keeps it in an array indexed by term id, so that idf(int) is a 
+	 * single array access. The table is a snapshot, call this again after adding more documents.
+	 * @param smoothing
+	 */
+	public void freezeIdf(IdfSmoothing smoothing){
+		double docCount = this.docs.get();
+		double[] table = new double[this.lastId.get() + 1];
+		Iterator<Entry<String, Integer>> iter = iterator();
+		while(iter.hasNext()){
+			Entry<String, Integer> e = iter.next();
+			LongAdder df = idf.get(e.getKey());
+			if(df != null && e.getValue() < table.length)
+				table[e.getValue()] = smoothing.idf(docCount, df.sum());
+		}
+		this.idfTable = table;
+	}
+	/**
+	 * Gets the idf of a term by its id. freezeIdf must be called first.
+	 * Terms added after freezeIdf have idf 0.
+	 * @param termId
+	 * @return
+	 */
+	@Override
+	public double idf(int termId){
+		double[] table = this.idfTable;
+		if(table == null)
+			throw new IllegalStateException("Call freezeIdf first");
+		if(termId < 0 || termId >= table.length)
+			return 0d;
+		return table[termId];
+	}
+	/**
+	 * Removes rare and common terms and renumbers the remaining ones from 1, in their old order. 
+	 * Must not run while other threads add terms. The idf table has to be frozen again afterwards.
+	 * @param minDf -- terms found in fewer documents are removed
+	 * @param maxDfRatio -- terms found in a larger fraction of the documents are removed, 1 keeps all
+	 * @param topN -- only the topN terms with the highest document frequency are kept, 0 or less for no limit
+	 * @return remap table, the new id of every old id or 0 if the term was removed. Pass it to Vector.remap.
+	 */
+	public synchronized int[] prune(int minDf, double maxDfRatio, int topN){
+		int maxId = lastId.get();
+		String[] oldTerms = this.terms;
+		final long[] df = new long[maxId + 1];
+		boolean[] keep = new boolean[maxId + 1];
+		double maxDf = maxDfRatio * docs.get();
+		int kept = 0;
+		for(int id = 1; id <= maxId; id++){
+			if(id >= oldTerms.length || oldTerms[id] == null)
+				continue;
+			LongAdder count = idf.get(oldTerms[id]);
+			df[id] = count == null ? 0 : count.sum();
+			if(df[id] >= minDf && df[id] <= maxDf){
+				keep[id] = true;
+				kept++;
+			}
+		}
+		if(topN > 0 && kept > topN){
+			Integer[] candidates = new Integer[kept];
+			int n = 0;
+			for(int id = 1; id <= maxId; id++){
+				if(keep[id])
+					candidates[n++] = id;
+			}
+			//highest document frequency first, lower id first on ties
+			Arrays.sort(candidates, new Comparator<Integer>(){
+				public int compare(Integer a, Integer b){
+					if(df[a] != df[b])
+						return df[a] > df[b] ? -1 : 1;
+					return a - b;
+				}
+			});
+			for(int i = topN; i < candidates.length; i++)
+				keep[candidates[i]] = false;
+			kept = topN;
+		}
+		int[] remap = new int[maxId + 1];
+		String[] newTerms = new String[Math.max(kept + 1, 1024)];
+		int next = 0;
+		for(int id = 1; id <= maxId; id++){
+			if(id >= oldTerms.length || oldTerms[id] == null)
+				continue;
+			String term = oldTerms[id];
+			if(keep[id]){
+				remap[id] = ++next;
+				newTerms[next] = term;
+				dictionary.put(term, next);
+			}else{
+				dictionary.remove(term);
+				idf.remove(term);
+			}
+		}
+		this.terms = newTerms;
+		this.lastId.set(next);
+		this.idfTable = null;
+		this.generation++;
+		return remap;
+	}
+	/**
+	 * Saves the terms, ids, document frequencies and doc count in the binary format read by MappedDictionary.
+	 * Terms are sorted by their UTF-8 bytes. The dictionary should not be changing while it is saved.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(String file) throws IOException{
+		int maxId = lastId.get();
+		int[] df = new int[maxId + 1];
+		ArrayList<byte[]> terms = new ArrayList<byte[]>(dictionary.size());
+		ArrayList<Integer> ids = new ArrayList<Integer>(dictionary.size());
+		Iterator<Entry<String, Integer>> iter = iterator();
+		while(iter.hasNext()){
+			Entry<String, Integer> e = iter.next();
+			terms.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+			ids.add(e.getValue());
+			LongAdder count = idf.get(e.getKey());
+			df[e.getValue()] = count == null ? 0 : (int) count.sum();
+		}
+		final byte[][] keys = terms.toArray(new byte[terms.size()][]);
+		Integer[] order = new Integer[keys.length];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		//lookups compare UTF-8 bytes, so the terms are sorted the same way
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				byte[] x = keys[a];
+				byte[] y = keys[b];
+				int n = Math.min(x.length, y.length);
+				for(int i = 0; i < n; i++){
+					int diff = (x[i] & 0xFF) - (y[i] & 0xFF);
+					if(diff != 0)
+						return diff;
+				}
+				return x.length - y.length;
+			}
+		});
+		int[] positions = new int[maxId + 1];
+		Arrays.fill(positions, -1);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try{
+			out.writeInt(MappedDictionary.MAGIC);
+			out.writeInt(MappedDictionary.VERSION);
+			out.writeInt(docs.get());
+			out.writeInt(keys.length);
+			out.writeInt(maxId);
+			int offset = 0;
+			for(int i = 0; i < order.length; i++){
+				out.writeInt(offset);
+				offset += keys[order[i]].length;
+				positions[ids.get(order[i])] = i;
+			}
+			out.writeInt(offset);
+			for(int i = 0; i < order.length; i++)
+				out.writeInt(ids.get(order[i]));
+			for(int i = 0; i <= maxId; i++)
+				out.writeInt(positions[i]);
+			for(int i = 0; i <= maxId; i++)
+				out.writeInt(df[i]);
+			for(int i = 0; i < order.length; i++)
+				out.write(keys[order[i]]);
+		}finally{
+			out.close();
+		}
+	}
+	/**
+	 * Loads a dictionary saved by save into memory, so that more documents can be added to it. 
+	 * For read only use MappedDictionary.open is much faster.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Dictionary load(String file) throws IOException{
+		MappedDictionary mapped = MappedDictionary.open(file);
+		Dictionary dict = new Dictionary();
+		dict.docs.set(mapped.getDocs());
+		dict.lastId.set(mapped.maxId());
+		for(int id = 1; id <= mapped.maxId(); id++){
+			String term = mapped.term(id);
+			if(term == null)
+				continue;
+			dict.dictionary.put(term, id);
+			dict.recordTerm(id, term);
+			LongAdder df = new LongAdder();
+			df.add(mapped.df(id));
+			dict.idf.put(term, df);
+		}
+		return dict;
+	}
 	
 	/**
-	 * This method adds word to the document.
+	 * Returns the id of the term, assigning the next free id if the term is new.
+	 * Known terms are served without locking, computeIfAbsent makes sure only one id is handed out per new term.
+	 */
+	private Integer assignId(String term){
+		Integer id = dictionary.get(term);
+		if(id != null)
+			return id;
+		return dictionary.computeIfAbsent(term, t -> {
+			int newId = lastId.incrementAndGet();
+			recordTerm(newId, t);
+			return newId;
+		});
+	}
+	/**
+	 * The character index of the terms. It is rebuilt after prune, and when terms were added since it was built 
+	 * and more lookups than it holds terms missed it, so the O(size) rebuild is paid by as many String lookups.
+	 */
+	private TermIndex termIndex(){
+		TermIndex index = termIndex;
+		int gen = generation;
+		if(index == null || index.generation != gen || (index.size != lastId.get() && index.misses.get() > index.size)){
+			index = new TermIndex(terms, lastId.get(), gen);
+			termIndex = index;
+		}
+		return index;
+	}
+	/**
+	 * Looks the slice up in the index, and in the map when the index misses and is older than the dictionary
+	 */
+	private int id(TermIndex index, char[] buffer, int offset, int length){
+		int id = index.id(buffer, offset, length);
+		if(id != 0 || (index.complete && index.size == lastId.get()))
+			return id;
+		index.misses.incrementAndGet();
+		Integer res = dictionary.get(new String(buffer, offset, length));
+		return res == null ? 0 : res;
+	}
+	/**
+	 * Stores the term of a new id in the reverse index
 	 */
-	private void addWordToTermMap(Integer docId, String term){
-		if(this.termMap.containsKey(docId)){
-			HashSet<String> termSet = this.termMap.get(docId);
-			termSet.add(term);
-			this.termMap.put(docId, termSet);
+	private synchronized void recordTerm(int id, String term){
+		String[] t = this.terms;
+		if(id >= t.length){
+			t = Arrays.copyOf(t, Math.max(id + 1, t.length * 2));
+			t[id] = term;
+			this.terms = t;
 		}else{
-			HashSet<String> termSet = new HashSet<String>();
-			termSet.add(term);
-			this.termMap.put(docId, termSet);
+			t[id] = term;
 		}
 	}
 	/**
 	 * This method maintains the count of word across document for IDF
 	 */
 	private void termDocCount(Integer docId, String term){
-		if(this.termMap.containsKey(docId)){
-			//termset has all the words in document
-			HashSet<String> termSet = this.termMap.get(docId);
-			//add term to the idf map only if we have not seen the term before 
-			if(!termSet.contains(term)){
-				//idf map counts the occurances of terms across documents
-				if(this.idf.containsKey(term))
-					this.idf.put(term, this.idf.get(term) + 1);
-				else
-					this.idf.put(term, 1d);
-				addWordToTermMap(docId, term);
+		//termset has all the words in document
+		Set<String> termSet = this.termMap.get(docId);
+		if(termSet == null)
+			termSet = this.termMap.computeIfAbsent(docId, d -> ConcurrentHashMap.<String>newKeySet());
+		//count the term only the first time it is seen in the document
+		if(termSet.add(term))
+			incrementDocFrequency(term);
+	}
+	/**
+	 * Counts one more document containing the term
+	 */
+	private void incrementDocFrequency(String term){
+		LongAdder df = this.idf.get(term);
+		if(df == null)
+			df = this.idf.computeIfAbsent(term, t -> new LongAdder());
+		df.increment();
+	}
+	/**
+	 * Open addressing table from the characters of each term to its id, probed with char slices.
+	 * A term whose id is handed out but not yet stored is missing, the index is then not complete.
+	 */
+	private static class TermIndex {
+		
+		private final int generation;
+		/**
+		 * last id when the index was built
+		 */
+		private final int size;
+		
+		private final boolean complete;
+		/**
+		 * lookups which missed the index while it was older than the dictionary
+		 */
+		private final AtomicInteger misses = new AtomicInteger();
+		
+		private final char[][] keys;
+		
+		private final int[] hashes;
+		
+		private final int[] ids;
+		
+		private TermIndex(String[] terms, int size, int generation){
+			this.generation = generation;
+			this.size = size;
+			int capacity = 16;
+			while(capacity < size * 2)
+				capacity <<= 1;
+			keys = new char[capacity][];
+			hashes = new int[capacity];
+			ids = new int[capacity];
+			boolean complete = true;
+			for(int id = 1; id <= size; id++){
+				String term = id < terms.length ? terms[id] : null;
+				if(term == null){
+					complete = false;
+					continue;
+				}
+				char[] word = term.toCharArray();
+				int h = hash(word, 0, word.length);
+				int mask = capacity - 1;
+				int slot = spread(h) & mask;
+				while(keys[slot] != null)
+					slot = (slot + 1) & mask;
+				keys[slot] = word;
+				hashes[slot] = h;
+				ids[slot] = id;
 			}
+			this.complete = complete;
+		}
+		
+		private int id(char[] buffer, int offset, int length){
+			int h = hash(buffer, offset, length);
+			int mask = keys.length - 1;
+			for(int slot = spread(h) & mask; keys[slot] != null; slot = (slot + 1) & mask){
+				char[] word = keys[slot];
+				if(hashes[slot] != h || word.length != length)
+					continue;
+				int i = 0;
+				while(i < length && word[i] == buffer[offset + i])
+					i++;
+				if(i == length)
+					return ids[slot];
+			}
+			return 0;
+		}
+		
+		private static int hash(char[] buffer, int offset, int length){
+			int h = 0;
+			for(int i = 0; i < length; i++)
+				h = 31 * h + buffer[offset + i];
+			return h;
 		}
-		//if termmap does not contain the document id, that means we have not seen the document before
-		else{
-			if(this.idf.containsKey(term))
-				this.idf.put(term, this.idf.get(term) + 1);
-			else
-				this.idf.put(term, 1d);
-			addWordToTermMap(docId, term);
+		
+		private static int spread(int h){
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
 		}
 	}
 }
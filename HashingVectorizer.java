@@ -0,0 +1,149 @@
+package text.vectorization;
+
+import java.util.List;
+
+/**
+ * This class vectorizes text with the hashing trick instead of a Dictionary. Every token is hashed with 
+ * MurmurHash3 into one of 2^bits columns, numbered from 1 like dictionary ids, so no vocabulary is built or shared.
+ * With signed hashing another bit of the hash decides whether the token adds +1 or -1, colliding tokens then 
+ * cancel out on average instead of inflating the column. The vectorizer has no mutable state and can be used 
+ * by any number of threads, each with its own parser.
+ * @author Apurv
+ */
+public class HashingVectorizer {
+	
+	private static final int C1 = 0xcc9e2d51;
+	
+	private static final int C2 = 0x1b873593;
+	
+	private final int bits;
+	
+	private final int mask;
+	
+	private final boolean signed;
+	
+	private final int seed;
+	
+	public HashingVectorizer(int bits, boolean signed, int seed){
+		if(bits < 1 || bits > 30)
+			throw new IllegalArgumentException("bits must be between 1 and 30");
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.signed = signed;
+		this.seed = seed;
+	}
+	
+	public HashingVectorizer(int bits, boolean signed){
+		this(bits, signed, 0);
+	}
+	/**
+	 * 2^20 columns, signed
+	 */
+	public HashingVectorizer(){
+		this(20, true, 0);
+	}
+	/**
+	 * @return the number of columns, vector keys go from 1 to dimension()
+	 */
+	public int dimension(){
+		return mask + 1;
+	}
+	/**
+	 * Column of a token, between 1 and dimension()
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public int index(char[] buffer, int offset, int length){
+		return (murmur3(buffer, offset, length, seed) & mask) + 1;
+	}
+	/**
+	 * Column of a token, between 1 and dimension()
+	 * @param token
+	 * @return
+	 */
+	public int index(CharSequence token){
+		return (murmur3(token, seed) & mask) + 1;
+	}
+	/**
+	 * Builds the TF vector of a text by streaming the tokens of the parser, no token String is needed.
+	 * @param parser
+	 * @param text
+	 * @return
+	 */
+	public Vector vectorize(Parser parser, CharSequence text){
+		final Vector v = new Vector();
+		parser.parse(text, new TokenConsumer(){
+			public void token(char[] buffer, int offset, int length){
+				add(v, murmur3(buffer, offset, length, seed));
+			}
+		});
+		return v;
+	}
+	/**
+	 * Builds the TF vector of a list of terms
+	 * @param terms
+	 * @return
+	 */
+	public Vector vectorize(List<String> terms){
+		Vector v = new Vector(terms.size());
+		for(int i = 0; i < terms.size(); i++)
+			add(v, murmur3(terms.get(i), seed));
+		return v;
+	}
+	
+	private void add(Vector v, int hash){
+		//the top bit is not used for the column since bits is at most 30
+		double value = signed && hash < 0 ? -1d : 1d;
+		v.increment((hash & mask) + 1, value);
+	}
+	/**
+	 * MurmurHash3 x86 32 bit over the UTF-16 code units, two characters per block
+	 */
+	static int murmur3(char[] buffer, int offset, int length, int seed){
+		int h = seed;
+		for(int i = 1; i < length; i += 2){
+			int k = buffer[offset + i - 1] | (buffer[offset + i] << 16);
+			h = mixH(h, mixK(k));
+		}
+		if((length & 1) == 1)
+			h ^= mixK(buffer[offset + length - 1]);
+		return fmix(h, 2 * length);
+	}
+	/**
+	 * Same hash as murmur3(char[], int, int, int) for a CharSequence
+	 */
+	static int murmur3(CharSequence s, int seed){
+		int length = s.length();
+		int h = seed;
+		for(int i = 1; i < length; i += 2){
+			int k = s.charAt(i - 1) | (s.charAt(i) << 16);
+			h = mixH(h, mixK(k));
+		}
+		if((length & 1) == 1)
+			h ^= mixK(s.charAt(length - 1));
+		return fmix(h, 2 * length);
+	}
+	
+	private static int mixK(int k){
+		k *= C1;
+		k = Integer.rotateLeft(k, 15);
+		return k * C2;
+	}
+	
+	private static int mixH(int h, int k){
+		h ^= k;
+		h = Integer.rotateLeft(h, 13);
+		return h * 5 + 0xe6546b64;
+	}
+	
+	private static int fmix(int h, int length){
+		h ^= length;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+}
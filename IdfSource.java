@@ -0,0 +1,13 @@
+package text.vectorization;
+
+/**
+ * Anything that can give the inverse document frequency of a term id. 
+ * Implemented by Dictionary, once its idf table is frozen, and by MappedDictionary.
+ * @author Apurv
+ *
+ */
+public interface IdfSource {
+
+	public double idf(int termId);
+	
+}
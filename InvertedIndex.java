@@ -0,0 +1,349 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * An in memory inverted index over vectors for top k cosine similarity search.
+ * Each term id has a posting list of document numbers and weights in primitive arrays. Weights are divided by 
+ * the document norm when the document is added, so a query only sums the products over its own terms.
+ * Queries use MaxScore pruning: terms are visited by decreasing upper bound, and once the best remaining total 
+ * can not reach the current k-th score, the rest of the lists are only probed for documents already found. 
+ * Pruning assumes non negative weights, as TF and TF IDF have, and is turned off otherwise.
+ * Documents are numbered from 0 in the order they are added. Add all documents from one thread, then search 
+ * from any number of threads.
+ * @author Apurv
+ */
+public class InvertedIndex {
+	
+	/**
+	 * A search result
+	 */
+	public static class Hit {
+		
+		public final int doc;
+		
+		public final double score;
+		
+		Hit(int doc, double score){
+			this.doc = doc;
+			this.score = score;
+		}
+		
+		@Override
+		public String toString(){
+			return doc + ":" + score;
+		}
+	}
+	
+	private int[][] postingDocs;
+	
+	private float[][] postingWeights;
+	
+	private int[] postingSizes;
+	/**
+	 * largest weight of each posting list, the upper bound used for pruning
+	 */
+	private float[] maxWeights;
+	
+	private int docs;
+	/**
+	 * pruning needs scores that only grow, it is turned off once a negative weight is seen
+	 */
+	private boolean negative;
+	
+	private ThreadLocal<Accumulator> accumulators;
+	
+	private boolean pruning = true;
+	
+	public InvertedIndex(){
+		postingDocs = new int[1024][];
+		postingWeights = new float[1024][];
+		postingSizes = new int[1024];
+		maxWeights = new float[1024];
+		docs = 0;
+		accumulators = new ThreadLocal<Accumulator>();
+	}
+	/**
+	 * Adds a document. The vector is frozen, keys must be positive term ids.
+	 * @param v
+	 * @return the document number
+	 * @throws Exception 
+	 */
+	public int add(Vector v) throws Exception{
+		v.freeze();
+		int doc = docs++;
+		double norm = v.norm();
+		if(norm == 0)
+			return doc;
+		for(int i = 0; i < v.size(); i++){
+			int term = v.keyAt(i);
+			float w = (float) (v.valueAt(i) / norm);
+			if(w == 0)
+				continue;
+			ensureTerm(term);
+			int n = postingSizes[term];
+			if(postingDocs[term] == null){
+				postingDocs[term] = new int[4];
+				postingWeights[term] = new float[4];
+			}else if(n == postingDocs[term].length){
+				postingDocs[term] = Arrays.copyOf(postingDocs[term], n * 2);
+				postingWeights[term] = Arrays.copyOf(postingWeights[term], n * 2);
+			}
+			postingDocs[term][n] = doc;
+			postingWeights[term][n] = w;
+			postingSizes[term] = n + 1;
+			if(w < 0)
+				negative = true;
+			if(Math.abs(w) > maxWeights[term])
+				maxWeights[term] = Math.abs(w);
+		}
+		return doc;
+	}
+	/**
+	 * Turns MaxScore pruning on or off, it is on by default. Results are the same either way.
+	 * @param pruning
+	 */
+	public void setPruning(boolean pruning){
+		this.pruning = pruning;
+	}
+	/**
+	 * @return the number of documents added
+	 */
+	public int size(){
+		return docs;
+	}
+	/**
+	 * Finds the k documents with the highest cosine similarity to the query
+	 * @param query -- vector with term id keys, it is frozen
+	 * @param k
+	 * @return hits by decreasing score, at most k of them
+	 * @throws Exception 
+	 */
+	public Hit[] search(Vector query, int k) throws Exception{
+		query.freeze();
+		double qnorm = query.norm();
+		if(qnorm == 0 || k <= 0 || docs == 0)
+			return new Hit[0];
+		//no more hits than documents, callers may ask for all with Integer.MAX_VALUE
+		k = Math.min(k, docs);
+		//query terms with a posting list, by decreasing upper bound
+		boolean prune = pruning && !negative;
+		int n = 0;
+		int[] terms = new int[query.size()];
+		double[] qw = new double[query.size()];
+		double[] bounds = new double[query.size()];
+		for(int i = 0; i < query.size(); i++){
+			int term = query.keyAt(i);
+			if(term <= 0 || term >= postingSizes.length || postingSizes[term] == 0)
+				continue;
+			terms[n] = term;
+			qw[n] = query.valueAt(i) / qnorm;
+			if(qw[n] < 0)
+				prune = false;
+			bounds[n] = Math.abs(qw[n]) * maxWeights[term];
+			n++;
+		}
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++)
+			order[i] = i;
+		final double[] b = bounds;
+		Arrays.sort(order, (x, y) -> Double.compare(b[y], b[x]));
+		//remaining[i] is the largest score the terms from position i on can still add
+		double[] remaining = new double[n + 1];
+		for(int i = n - 1; i >= 0; i--)
+			remaining[i] = remaining[i + 1] + bounds[order[i]];
+		
+		Accumulator acc = accumulator();
+		try{
+			int i = 0;
+			for(; i < n; i++){
+				if(prune && acc.threshold(k) > remaining[i])
+					break;
+				int term = terms[order[i]];
+				double w = qw[order[i]];
+				int[] list = postingDocs[term];
+				float[] weights = postingWeights[term];
+				if(prune){
+					double kth = acc.threshold(k);
+					for(int j = 0; j < postingSizes[term]; j++){
+						if(acc.add(list[j], w * weights[j]) > kth)
+							kth = acc.offer(list[j], k);
+					}
+				}else{
+					for(int j = 0; j < postingSizes[term]; j++)
+						acc.add(list[j], w * weights[j]);
+				}
+			}
+			//no new document can reach the top k, the remaining lists only add to documents already found
+			for(; i < n; i++){
+				int term = terms[order[i]];
+				double w = qw[order[i]];
+				int[] list = postingDocs[term];
+				float[] weights = postingWeights[term];
+				for(int j = 0; j < postingSizes[term]; j++){
+					if(acc.seen[list[j]])
+						acc.scores[list[j]] += w * weights[j];
+				}
+			}
+			return topK(acc, k);
+		}finally{
+			acc.clear();
+		}
+	}
+	
+	private void ensureTerm(int term){
+		if(term <= 0)
+			throw new IllegalArgumentException("Term ids must be positive");
+		if(term < postingSizes.length)
+			return;
+		int capacity = Math.max(term + 1, postingSizes.length * 2);
+		postingDocs = Arrays.copyOf(postingDocs, capacity);
+		postingWeights = Arrays.copyOf(postingWeights, capacity);
+		postingSizes = Arrays.copyOf(postingSizes, capacity);
+		maxWeights = Arrays.copyOf(maxWeights, capacity);
+	}
+	
+	private Accumulator accumulator(){
+		Accumulator acc = accumulators.get();
+		if(acc == null || acc.scores.length < docs){
+			acc = new Accumulator(docs);
+			accumulators.set(acc);
+		}
+		return acc;
+	}
+	private static Hit[] topK(Accumulator acc, int k){
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(k, (x, y) -> x.score != y.score ? Double.compare(x.score, y.score) : y.doc - x.doc);
+		for(int c = 0; c < acc.touched; c++){
+			int doc = acc.docs[c];
+			if(heap.size() == k && acc.scores[doc] < heap.peek().score)
+				continue;
+			Hit h = new Hit(doc, acc.scores[doc]);
+			if(heap.size() < k){
+				heap.add(h);
+			}else if(heap.comparator().compare(h, heap.peek()) > 0){
+				heap.poll();
+				heap.add(h);
+			}
+		}
+		Hit[] res = new Hit[heap.size()];
+		for(int i = res.length - 1; i >= 0; i--)
+			res[i] = heap.poll();
+		return res;
+	}
+	/**
+	 * Score per document and the list of documents with a score, reused by the queries of one thread.
+	 * While pruning, a min heap of the k best documents is kept up to date so the k-th score is read in constant time.
+	 */
+	private static class Accumulator {
+		
+		private double[] scores;
+		
+		private boolean[] seen;
+		
+		private int[] docs;
+		
+		private int touched;
+		/**
+		 * documents of the min heap, ordered by score
+		 */
+		private int[] heap = new int[0];
+		
+		private int heapSize;
+		/**
+		 * position in the heap plus one of every document, 0 when not in the heap
+		 */
+		private int[] heapPos;
+		/**
+		 * score of the heap root once the heap is full
+		 */
+		private double kth = Double.NEGATIVE_INFINITY;
+		
+		private Accumulator(int size){
+			scores = new double[size];
+			seen = new boolean[size];
+			heapPos = new int[size];
+			docs = new int[16];
+		}
+		
+		/**
+		 * @return the new score of the document
+		 */
+		private double add(int doc, double score){
+			if(!seen[doc]){
+				seen[doc] = true;
+				if(touched == docs.length)
+					docs = Arrays.copyOf(docs, touched * 2);
+				docs[touched++] = doc;
+			}
+			return scores[doc] += score;
+		}
+		/**
+		 * Updates the heap of the k best documents after the score of a document grew above the k-th score. 
+		 * Scores only grow, so a document in the heap only moves down, and one outside replaces the root.
+		 * @return the new k-th score
+		 */
+		private double offer(int doc, int k){
+			if(heap.length < k)
+				heap = Arrays.copyOf(heap, k);
+			int pos = heapPos[doc] - 1;
+			if(pos >= 0){
+				siftDown(pos);
+			}else if(heapSize < k){
+				int i = heapSize++;
+				while(i > 0 && scores[heap[(i - 1) / 2]] > scores[doc]){
+					place(heap[(i - 1) / 2], i);
+					i = (i - 1) / 2;
+				}
+				place(doc, i);
+			}else if(scores[doc] > scores[heap[0]]){
+				heapPos[heap[0]] = 0;
+				place(doc, 0);
+				siftDown(0);
+			}
+			if(heapSize == k)
+				kth = scores[heap[0]];
+			return threshold(k);
+		}
+		/**
+		 * The k-th best partial score so far
+		 */
+		private double threshold(int k){
+			return heapSize < k ? Double.NEGATIVE_INFINITY : kth;
+		}
+		
+		private void siftDown(int i){
+			int doc = heap[i];
+			double s = scores[doc];
+			while(true){
+				int child = 2 * i + 1;
+				if(child >= heapSize)
+					break;
+				if(child + 1 < heapSize && scores[heap[child + 1]] < scores[heap[child]])
+					child++;
+				if(scores[heap[child]] >= s)
+					break;
+				place(heap[child], i);
+				i = child;
+			}
+			place(doc, i);
+		}
+		
+		private void place(int doc, int i){
+			heap[i] = doc;
+			heapPos[doc] = i + 1;
+		}
+		
+		private void clear(){
+			for(int c = 0; c < touched; c++){
+				scores[docs[c]] = 0;
+				seen[docs[c]] = false;
+			}
+			touched = 0;
+			for(int i = 0; i < heapSize; i++)
+				heapPos[heap[i]] = 0;
+			heapSize = 0;
+			kth = Double.NEGATIVE_INFINITY;
+		}
+	}
+}
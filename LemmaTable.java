@@ -0,0 +1,207 @@
+package text.vectorization;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * A precomputed, immutable word to lemma table, so that lemmatisation is a lookup instead of a run of the 
+ * rule engine. The table is built once from word lists with the shared lemmatiser and saved as a sorted string 
+ * table, which is memory mapped when opened: opening takes milliseconds and processes share it through the page cache.
+ * Build it from the command line with
+ *   java text.vectorization.LemmaTable lemmas.bin wordlist1 [wordlist2 ...]
+ * where each word list has a word in the first field of each line, so WordNet index files can be used directly.
+ * @author Apurv
+ */
+public final class LemmaTable {
+	
+	private static final int MAGIC = 0x4C454D54;
+	/**
+	 * lemma length stored when the lemma is the word itself
+	 */
+	private static final short SAME_AS_WORD = -1;
+	
+	private final ByteBuffer data;
+	
+	private final int size;
+	/**
+	 * position of the offset array in data
+	 */
+	private final int offsetBase;
+	
+	private LemmaTable(ByteBuffer data){
+		this.data = data;
+		if(data.getInt(0) != MAGIC)
+			throw new IllegalArgumentException("Not a lemma table");
+		this.size = data.getInt(4);
+		this.offsetBase = 8;
+	}
+	/**
+	 * Maps a table file saved by build
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LemmaTable open(String file) throws IOException{
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try{
+			return new LemmaTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}finally{
+			//the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+	/**
+	 * @return the number of words in the table
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * Looks up the lemma of a word
+	 * @param word
+	 * @return the lemma, null if the word is not in the table
+	 */
+	public String lemma(String word){
+		byte[] key = word.getBytes(StandardCharsets.UTF_8);
+		int lo = 0, hi = size - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int record = data.getInt(offsetBase + 4 * mid);
+			int cmp = compare(record, key);
+			if(cmp < 0){
+				lo = mid + 1;
+			}else if(cmp > 0){
+				hi = mid - 1;
+			}else{
+				int lemmaAt = record + 2 + key.length;
+				short length = data.getShort(lemmaAt);
+				if(length == SAME_AS_WORD)
+					return word;
+				byte[] lemma = new byte[length];
+				for(int i = 0; i < length; i++)
+					lemma[i] = data.get(lemmaAt + 2 + i);
+				return new String(lemma, StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+	/**
+	 * Compares the word of the record with key, byte by byte as unsigned values
+	 */
+	private int compare(int record, byte[] key){
+		int length = data.getShort(record);
+		int n = Math.min(length, key.length);
+		for(int i = 0; i < n; i++){
+			int diff = (data.get(record + 2 + i) & 0xFF) - (key[i] & 0xFF);
+			if(diff != 0)
+				return diff;
+		}
+		return length - key.length;
+	}
+	/**
+	 * Lemmatises every word with the shared lemmatiser and saves the table. Words are lowercased.
+	 * @param words
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void build(Iterable<String> words, String file) throws IOException{
+		TreeSet<String> unique = new TreeSet<String>();
+		for(String w : words){
+			if(!w.isEmpty())
+				unique.add(w.toLowerCase());
+		}
+		ArrayList<byte[][]> records = new ArrayList<byte[][]>(unique.size());
+		for(String w : unique){
+			String lemma = SharedLemmatiser.lemma(w);
+			byte[] word = w.getBytes(StandardCharsets.UTF_8);
+			byte[] root = lemma == null || lemma.equals(w) ? null : lemma.getBytes(StandardCharsets.UTF_8);
+			if(word.length > Short.MAX_VALUE || (root != null && root.length > Short.MAX_VALUE))
+				continue;
+			records.add(new byte[][]{word, root});
+		}
+		//lookups compare UTF-8 bytes, so the table is sorted the same way
+		Collections.sort(records, new Comparator<byte[][]>(){
+			public int compare(byte[][] a, byte[][] b){
+				int n = Math.min(a[0].length, b[0].length);
+				for(int i = 0; i < n; i++){
+					int diff = (a[0][i] & 0xFF) - (b[0][i] & 0xFF);
+					if(diff != 0)
+						return diff;
+				}
+				return a[0].length - b[0].length;
+			}
+		});
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(records.size());
+			int offset = 8 + 4 * records.size();
+			for(byte[][] r : records){
+				out.writeInt(offset);
+				offset += 2 + r[0].length + 2 + (r[1] == null ? 0 : r[1].length);
+			}
+			for(byte[][] r : records){
+				out.writeShort(r[0].length);
+				out.write(r[0]);
+				if(r[1] == null){
+					out.writeShort(SAME_AS_WORD);
+				}else{
+					out.writeShort(r[1].length);
+					out.write(r[1]);
+				}
+			}
+		}finally{
+			out.close();
+		}
+	}
+	/**
+	 * Reads the first field of every line of the word lists. Lines starting with a space, like the license 
+	 * header of WordNet files, are skipped. WordNet joins collocations with underscores, they are kept as they are.
+	 * @param wordLists
+	 * @return
+	 * @throws IOException
+	 */
+	public static ArrayList<String> readWords(String... wordLists) throws IOException{
+		ArrayList<String> words = new ArrayList<String>();
+		for(String file : wordLists){
+			BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+			try{
+				String line;
+				while((line = reader.readLine()) != null){
+					if(line.isEmpty() || Character.isWhitespace(line.charAt(0)))
+						continue;
+					int end = 0;
+					while(end < line.length() && !Character.isWhitespace(line.charAt(end)))
+						end++;
+					words.add(line.substring(0, end));
+				}
+			}finally{
+				reader.close();
+			}
+		}
+		return words;
+	}
+	
+	public static void main(String[] args) throws IOException{
+		if(args.length < 2){
+			System.err.println("usage: LemmaTable table-file word-list...");
+			return;
+		}
+		String[] lists = new String[args.length - 1];
+		System.arraycopy(args, 1, lists, 0, lists.length);
+		build(readWords(lists), args[0]);
+	}
+}
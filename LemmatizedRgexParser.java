@@ -1,14 +1,12 @@
 package text.vectorization;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 
-import text.helper.Properties;
-import dragon.nlp.tool.lemmatiser.EngLemmatiser;
-
 /**
  * This parsers implements lemmatized regex parser
+ * parse(String) may be called from several threads on one instance. The streaming parse(CharSequence, TokenConsumer) 
+ * reuses a token buffer of the instance, so use one instance per thread with it.
  * @author Apurv
  *
  */
@@ -20,11 +18,15 @@ public class LemmatizedRgexParser  implements Parser{
 	
 	private boolean REMOVE_STOP_WORDS;
 	
-	private HashSet<String> stopWords;
+	private StopWordFilter stopWords;
+	/**
+	 * characters of the token handed to a TokenConsumer
+	 */
+	private char[] buffer = new char[64];
 	
-	private static HashMap<String, String> lemmaCache = new HashMap<String, String>();
+	private TermCache lemmaCache = TermCache.LEMMAS;
 	
-	private EngLemmatiser lemmatiser = new EngLemmatiser(Properties.lemmatiserPath, true, false);
+	private LemmaTable lemmaTable;
 	
 	public LemmatizedRgexParser(String regex, boolean lemmatization, boolean removeStopWords){
 		this.regex = regex;
@@ -44,8 +46,34 @@ public class LemmatizedRgexParser  implements Parser{
 		this.REMOVE_STOP_WORDS = false;
 	}
 	
+	/**
+	 * Sets the stop words. The set is copied, later changes to it are not seen by the parser. 
+	 * Stop words are checked on the lowercased token before lemmatization, so the words are used as they are.
+	 * @param words
+	 */
 	public void setStopWords(HashSet<String> words){
-		this.stopWords = words;
+		this.stopWords = words == null ? null : new StopWordFilter(words, false, false);
+	}
+	/**
+	 * Sets the stop words from a prepared filter, for example StopWordFilter.english()
+	 * @param filter
+	 */
+	public void setStopWordFilter(StopWordFilter filter){
+		this.stopWords = filter;
+	}
+	/**
+	 * Replaces the shared lemma cache, for example by one with a different capacity
+	 * @param cache
+	 */
+	public void setLemmaCache(TermCache cache){
+		this.lemmaCache = cache;
+	}
+	/**
+	 * Resolves lemmas from a precomputed table, the lemmatiser is only used for words missing from the table
+	 * @param table
+	 */
+	public void setLemmaTable(LemmaTable table){
+		this.lemmaTable = table;
 	}
 	/**
 	 * This method parses the input string. It has operations to remove stop words and stem the word. 
@@ -56,9 +84,25 @@ public class LemmatizedRgexParser  implements Parser{
 	 */
 	@Override
 	public ArrayList<String> parse(String text){
+		ArrayList<String> resultList = new ArrayList<String>();
+		parse(text, resultList, null);
+		return resultList;
+	}
+	/**
+	 * Streams the tokens to the consumer, with the same processing as parse(String)
+	 * @param text
+	 * @param consumer
+	 */
+	@Override
+	public void parse(CharSequence text, TokenConsumer consumer){
+		parse(text.toString(), null, consumer);
+	}
+	/**
+	 * Tokens go to resultList, or to the consumer when resultList is null
+	 */
+	private void parse(String text, ArrayList<String> resultList, TokenConsumer consumer){
 		
 		String[] splits = text.split(regex);
-		ArrayList<String> resultList = new ArrayList<String>();
 		//if the string has to be processed
 		try{
 			for(int i = 0 ; i  < splits.length; i++){
@@ -71,7 +115,7 @@ public class LemmatizedRgexParser  implements Parser{
 						throw new Exception("populate stop words");
 					}else{
 						if(!stopWords.contains(s) && !s.equals(""))
-							resultList.add(s);
+							emit(s, resultList, consumer);
 					}
 					s = getTermByTermWordnet(s);
 				}
@@ -80,22 +124,31 @@ public class LemmatizedRgexParser  implements Parser{
 						throw new Exception("populate stop words");
 					}else{
 						if(!stopWords.contains(s) && !s.equals(""))
-							resultList.add(s);
+							emit(s, resultList, consumer);
 					}						
 				}
 				if(this.LEMMATIZATION && !s.equals("") && !this.REMOVE_STOP_WORDS){//if stemming has to be performed 
 					s = getTermByTermWordnet(s);
-					resultList.add(s);
+					emit(s, resultList, consumer);
 				}
 				if(!this.REMOVE_STOP_WORDS && !this.LEMMATIZATION)
-					resultList.add(s);
+					emit(s, resultList, consumer);
 				
 			}
 		}catch(Exception ex){
 			ex.printStackTrace();
 		}
-		
-		return resultList;
+	}
+	
+	private void emit(String s, ArrayList<String> resultList, TokenConsumer consumer){
+		if(resultList != null){
+			resultList.add(s);
+			return;
+		}
+		if(s.length() > buffer.length)
+			buffer = new char[s.length()];
+		s.getChars(0, s.length(), buffer, 0);
+		consumer.token(buffer, 0, s.length());
 	}	
 
 	/**
@@ -104,18 +157,30 @@ public class LemmatizedRgexParser  implements Parser{
 	 * @return
 	 */
 	private String getTermByTermWordnet(String s) {
+		//tokens from the regex split rarely hold a space, skip splitting them again
+		if(s.indexOf(' ') < 0)
+			return lemmaOf(s);
 		String[] words = s.split(" ");
         StringBuilder rootString = new StringBuilder();
         for(int i=0;i<words.length;i++)
         {
-            String lemma = lemmaCache.get(words[i]);
-            if(lemma == null)
-            {
-                lemma = lemmatiser.stem(words[i]);
-                lemmaCache.put(words[i], lemma);
-            }
-            rootString = rootString.append(lemma+" ");
+            rootString = rootString.append(lemmaOf(words[i])).append(' ');
         }
         return rootString.toString().trim();
 	}
+	/**
+	 * Lemma of one word from the cache, then the lemma table if set, then the lemmatiser
+	 */
+	private String lemmaOf(String word){
+		String lemma = lemmaCache.get(word);
+		if(lemma == null)
+		{
+			if(lemmaTable != null)
+				lemma = lemmaTable.lemma(word);
+			if(lemma == null)
+				lemma = SharedLemmatiser.lemma(word);
+			lemmaCache.put(word, lemma);
+		}
+		return lemma;
+	}
 }
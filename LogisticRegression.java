@@ -0,0 +1,604 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Multinomial logistic regression on sparse rows, the in process replacement of mnrfit in Trainer.m and mnrval in 
+ * LRClassifier.m. Rows are never densified, every step only touches the non zeros of the rows.
+ * Two trainers are offered: mini-batch SGD, run Hogwild style by several threads updating the shared weights without 
+ * locks, and full batch L-BFGS, which becomes OWL-QN when an L1 penalty is set. The objective is the mean negative 
+ * log likelihood plus l2 / 2 * |w|^2 plus l1 * |w|_1, the intercepts are not penalised.
+ * Labels are any integers, for example the 1 and 2 of labelOutputFile.tsv.
+ * @author Apurv
+ */
+public class LogisticRegression {
+	
+	private double l1;
+	
+	private double l2;
+	
+	private int[] labels;
+	/**
+	 * number of features, term ids at or above it have no weight
+	 */
+	private int columns;
+	/**
+	 * weight of term t for class c at t * classes + c, the intercepts follow at columns * classes + c
+	 */
+	private double[] weights;
+	
+	private int threads = Runtime.getRuntime().availableProcessors();
+	//SGD settings
+	private int epochs = 10;
+	
+	private int batchSize = 32;
+	
+	private double learningRate = 0.5;
+	
+	private long seed = 42;
+	//L-BFGS settings
+	private int maxIterations = 200;
+	
+	private int memory = 10;
+	
+	private double tolerance = 1e-6;
+	
+	public LogisticRegression(double l1, double l2){
+		if(l1 < 0 || l2 < 0)
+			throw new IllegalArgumentException("Penalties must not be negative");
+		this.l1 = l1;
+		this.l2 = l2;
+	}
+	/**
+	 * Small L2 penalty and no L1 penalty
+	 */
+	public LogisticRegression(){
+		this(0, 1e-6);
+	}
+	
+	public void setThreads(int threads){
+		this.threads = Math.max(1, threads);
+	}
+	
+	public void setEpochs(int epochs){
+		this.epochs = epochs;
+	}
+	
+	public void setBatchSize(int batchSize){
+		this.batchSize = Math.max(1, batchSize);
+	}
+	/**
+	 * Initial SGD step, decayed as learningRate / (1 + epoch)
+	 * @param learningRate
+	 */
+	public void setLearningRate(double learningRate){
+		this.learningRate = learningRate;
+	}
+	/**
+	 * Seed of the SGD shuffling
+	 * @param seed
+	 */
+	public void setSeed(long seed){
+		this.seed = seed;
+	}
+	
+	public void setMaxIterations(int maxIterations){
+		this.maxIterations = maxIterations;
+	}
+	/**
+	 * Number of corrections kept by L-BFGS
+	 * @param memory
+	 */
+	public void setMemory(int memory){
+		this.memory = Math.max(1, memory);
+	}
+	/**
+	 * L-BFGS stops when the objective improves by less than this fraction
+	 * @param tolerance
+	 */
+	public void setTolerance(double tolerance){
+		this.tolerance = tolerance;
+	}
+	
+	public void trainSgd(List<Vector> vectors, int[] labels){
+		trainSgd(toMatrix(vectors), labels);
+	}
+	/**
+	 * Mini-batch SGD. Mini-batches are shared among threads which apply their updates to the weights without locking, 
+	 * the races only lose a few updates on sparse data. Penalties are applied to the features of a mini-batch only.
+	 * @param m
+	 * @param labels -- label of each row
+	 */
+	public void trainSgd(final SparseMatrix m, int[] labels){
+		final int[] y = init(m, labels);
+		final int classes = this.labels.length;
+		final int[] rowPtr = m.rowPtr();
+		final int[] colIdx = m.colIdx();
+		final double[] values = m.values();
+		final double[] w = weights;
+		final int rows = m.rows();
+		final int[] order = new int[rows];
+		for(int i = 0; i < rows; i++)
+			order[i] = i;
+		final int batches = (rows + batchSize - 1) / batchSize;
+		final Scratch[] scratch = new Scratch[threads];
+		for(int thread = 0; thread < threads; thread++)
+			scratch[thread] = new Scratch(classes, batchSize * 64);
+		Random random = new Random(seed);
+		for(int epoch = 0; epoch < epochs; epoch++){
+			shuffle(order, random);
+			final double step = learningRate / (1 + epoch);
+			IntStream.range(0, threads).parallel().forEach(thread -> {
+				Scratch sc = scratch[thread];
+				double[] p = sc.p;
+				for(int b = thread; b < batches; b += threads){
+					int end = Math.min(rows, (b + 1) * batchSize);
+					for(int o = b * batchSize; o < end; o++){
+						int i = order[o];
+						probabilities(w, classes, colIdx, values, rowPtr[i], rowPtr[i + 1], p);
+						p[y[i]] -= 1;
+						for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++){
+							int base = sc.slot(colIdx[k]) * classes;
+							for(int c = 0; c < classes; c++)
+								sc.gradient[base + c] += p[c] * values[k];
+						}
+						for(int c = 0; c < classes; c++)
+							sc.bias[c] += p[c];
+					}
+					double scale = step / (end - b * batchSize);
+					for(int j = 0; j < sc.count; j++){
+						int base = sc.terms[j] * classes;
+						for(int c = 0; c < classes; c++){
+							double v = w[base + c] - scale * sc.gradient[j * classes + c] - step * l2 * w[base + c];
+							//truncated gradient for L1, the weight is clipped at zero
+							if(l1 > 0)
+								v = v > 0 ? Math.max(0, v - step * l1) : Math.min(0, v + step * l1);
+							w[base + c] = v;
+						}
+					}
+					int base = columns * classes;
+					for(int c = 0; c < classes; c++)
+						w[base + c] -= scale * sc.bias[c];
+					sc.clear();
+				}
+			});
+		}
+	}
+	
+	public double trainLbfgs(List<Vector> vectors, int[] labels){
+		return trainLbfgs(toMatrix(vectors), labels);
+	}
+	/**
+	 * Full batch L-BFGS, OWL-QN when l1 > 0. The gradient is computed by partitions of rows in parallel.
+	 * @param m
+	 * @param labels -- label of each row
+	 * @return the final value of the objective
+	 */
+	public double trainLbfgs(SparseMatrix m, int[] labels){
+		int[] y = init(m, labels);
+		int n = weights.length;
+		int penalised = columns * this.labels.length;
+		double[] w = weights;
+		double[] g = new double[n];
+		double[] pg = new double[n];
+		double[] d = new double[n];
+		double[] next = new double[n];
+		double[] nextG = new double[n];
+		double[][] s = new double[memory][];
+		double[][] dy = new double[memory][];
+		double[] rho = new double[memory];
+		double[] alpha = new double[memory];
+		int stored = 0;
+		//gradients of the row partitions after the first, which writes to g, reused by every evaluation
+		double[][] gradients = new double[Math.max(1, Math.min(threads, m.rows() / 1000)) - 1][n];
+		double f = objective(m, y, w, g, gradients);
+		for(int iteration = 0; iteration < maxIterations; iteration++){
+			pseudoGradient(w, g, pg, penalised);
+			//two loop recursion, newest correction first
+			System.arraycopy(pg, 0, d, 0, n);
+			for(int j = stored - 1; j >= 0; j--){
+				alpha[j] = rho[j] * dot(s[j], d);
+				axpy(-alpha[j], dy[j], d);
+			}
+			double gamma = stored > 0 ? 1 / (rho[stored - 1] * dot(dy[stored - 1], dy[stored - 1])) : 1 / Math.max(1e-10, Math.sqrt(dot(pg, pg)));
+			for(int i = 0; i < n; i++)
+				d[i] *= -gamma;
+			for(int j = 0; j < stored; j++){
+				double beta = rho[j] * dot(dy[j], d);
+				axpy(-alpha[j] - beta, s[j], d);
+			}
+			//the direction has to descend along the pseudo gradient
+			if(l1 > 0){
+				for(int i = 0; i < n; i++){
+					if(d[i] * pg[i] >= 0)
+						d[i] = 0;
+				}
+			}
+			double descent = dot(d, pg);
+			if(descent >= 0)
+				break;
+			double step = 1;
+			double nextF = Double.NaN;
+			for(int tries = 0; tries < 30; tries++, step /= 2){
+				for(int i = 0; i < n; i++){
+					next[i] = w[i] + step * d[i];
+					//stay in the orthant of w, or of -pg where w is zero
+					if(l1 > 0 && i < penalised){
+						double orthant = w[i] != 0 ? w[i] : -pg[i];
+						if(next[i] * orthant <= 0)
+							next[i] = 0;
+					}
+				}
+				nextF = objective(m, y, next, nextG, gradients);
+				double change = 0;
+				for(int i = 0; i < n; i++)
+					change += pg[i] * (next[i] - w[i]);
+				if(nextF <= f + 1e-4 * change)
+					break;
+			}
+			if(!(nextF < f))
+				break;
+			double[] sj = stored == memory ? s[0] : new double[n];
+			double[] yj = stored == memory ? dy[0] : new double[n];
+			if(stored == memory){
+				System.arraycopy(s, 1, s, 0, memory - 1);
+				System.arraycopy(dy, 1, dy, 0, memory - 1);
+				System.arraycopy(rho, 1, rho, 0, memory - 1);
+				stored--;
+			}
+			for(int i = 0; i < n; i++){
+				sj[i] = next[i] - w[i];
+				yj[i] = nextG[i] - g[i];
+			}
+			double sy = dot(sj, yj);
+			if(sy > 1e-10){
+				s[stored] = sj;
+				dy[stored] = yj;
+				rho[stored] = 1 / sy;
+				stored++;
+			}
+			double[] swap = w;
+			w = next;
+			next = swap;
+			swap = g;
+			g = nextG;
+			nextG = swap;
+			boolean converged = f - nextF < tolerance * Math.max(1, Math.abs(f));
+			f = nextF;
+			if(converged)
+				break;
+		}
+		weights = w;
+		return f;
+	}
+	/**
+	 * @return the labels seen in training, in the order of the probabilities
+	 */
+	public int[] labels(){
+		return labels.clone();
+	}
+	/**
+	 * Probability of every class, in the order of labels()
+	 * @param v
+	 * @return
+	 */
+	public double[] probabilities(Vector v){
+		checkTrained();
+		v.freeze();
+		int[] keys = new int[v.size()];
+		double[] values = new double[v.size()];
+		for(int i = 0; i < v.size(); i++){
+			keys[i] = v.keyAt(i);
+			values[i] = v.valueAt(i);
+		}
+		double[] p = new double[labels.length];
+		probabilities(weights, labels.length, keys, values, 0, keys.length, p);
+		return p;
+	}
+	/**
+	 * Probabilities of every row, rows are scored in parallel
+	 * @param m
+	 * @return probability of every class by row, in the order of labels()
+	 */
+	public double[][] probabilities(final SparseMatrix m){
+		checkTrained();
+		final double[] w = weights;
+		final int[] rowPtr = m.rowPtr();
+		final int[] colIdx = m.colIdx();
+		final double[] values = m.values();
+		final double[][] res = new double[m.rows()][];
+		IntStream.range(0, m.rows()).parallel().forEach(i -> {
+			double[] p = new double[labels.length];
+			probabilities(w, labels.length, colIdx, values, rowPtr[i], rowPtr[i + 1], p);
+			res[i] = p;
+		});
+		return res;
+	}
+	
+	public int predict(Vector v){
+		return labels[argmax(probabilities(v))];
+	}
+	/**
+	 * Predicts the label of every row, rows are scored in parallel
+	 * @param m
+	 * @return
+	 */
+	public int[] predict(SparseMatrix m){
+		double[][] p = probabilities(m);
+		int[] res = new int[p.length];
+		for(int i = 0; i < p.length; i++)
+			res[i] = labels[argmax(p[i])];
+		return res;
+	}
+	/**
+	 * @return number of non zero term weights, to see the sparsity L1 gives
+	 */
+	public int nonZeroWeights(){
+		checkTrained();
+		int count = 0;
+		for(int i = 0; i < columns * labels.length; i++){
+			if(weights[i] != 0)
+				count++;
+		}
+		return count;
+	}
+	/**
+	 * Sets up labels and weights for a training set
+	 * @return class index of every row
+	 */
+	private int[] init(SparseMatrix m, int[] labels){
+		if(labels.length < m.rows())
+			throw new IllegalArgumentException("one label per row is needed");
+		int[] distinct = Arrays.stream(labels, 0, m.rows()).distinct().sorted().toArray();
+		if(distinct.length < 2)
+			throw new IllegalArgumentException("At least two labels are needed");
+		int[] y = new int[m.rows()];
+		for(int i = 0; i < y.length; i++)
+			y[i] = Arrays.binarySearch(distinct, labels[i]);
+		this.labels = distinct;
+		this.columns = m.columns();
+		this.weights = new double[(columns + 1) * distinct.length];
+		return y;
+	}
+	/**
+	 * Penalised mean negative log likelihood at w, its gradient goes to g. The L1 term is added to the value only.
+	 * Rows are split in gradients.length + 1 partitions, the first adds to g and the others to their buffer.
+	 */
+	private double objective(final SparseMatrix m, final int[] y, final double[] w, double[] g, final double[][] gradients){
+		final int classes = labels.length;
+		final int[] rowPtr = m.rowPtr();
+		final int[] colIdx = m.colIdx();
+		final double[] values = m.values();
+		final int rows = m.rows();
+		final int partitions = gradients.length + 1;
+		final int size = (rows + partitions - 1) / partitions;
+		final double[] losses = new double[partitions];
+		IntStream.range(0, partitions).parallel().forEach(part -> {
+			double[] local = part == 0 ? g : gradients[part - 1];
+			Arrays.fill(local, 0);
+			double[] p = new double[classes];
+			double loss = 0;
+			int bias = columns * classes;
+			for(int i = part * size; i < Math.min(rows, (part + 1) * size); i++){
+				loss -= Math.log(Math.max(Double.MIN_NORMAL, probabilities(w, classes, colIdx, values, rowPtr[i], rowPtr[i + 1], p)[y[i]]));
+				p[y[i]] -= 1;
+				for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++){
+					int base = colIdx[k] * classes;
+					for(int c = 0; c < classes; c++)
+						local[base + c] += p[c] * values[k];
+				}
+				for(int c = 0; c < classes; c++)
+					local[bias + c] += p[c];
+			}
+			losses[part] = loss;
+		});
+		double loss = 0;
+		for(int part = 0; part < partitions; part++){
+			loss += losses[part];
+			if(part > 0)
+				axpy(1, gradients[part - 1], g);
+		}
+		loss /= rows;
+		int penalised = columns * classes;
+		double squares = 0;
+		double absolutes = 0;
+		for(int i = 0; i < g.length; i++){
+			g[i] /= rows;
+			if(i < penalised){
+				g[i] += l2 * w[i];
+				squares += w[i] * w[i];
+				absolutes += Math.abs(w[i]);
+			}
+		}
+		return loss + l2 / 2 * squares + l1 * absolutes;
+	}
+	/**
+	 * Gradient of the objective including L1, taking the one sided derivative that descends where a weight is zero
+	 */
+	private void pseudoGradient(double[] w, double[] g, double[] pg, int penalised){
+		for(int i = 0; i < g.length; i++){
+			if(l1 == 0 || i >= penalised)
+				pg[i] = g[i];
+			else if(w[i] > 0)
+				pg[i] = g[i] + l1;
+			else if(w[i] < 0)
+				pg[i] = g[i] - l1;
+			else if(g[i] + l1 < 0)
+				pg[i] = g[i] + l1;
+			else if(g[i] - l1 > 0)
+				pg[i] = g[i] - l1;
+			else
+				pg[i] = 0;
+		}
+	}
+	/**
+	 * Softmax of the scores of a sparse row, features beyond the trained columns are ignored
+	 * @return p
+	 */
+	private double[] probabilities(double[] w, int classes, int[] keys, double[] values, int from, int to, double[] p){
+		int bias = columns * classes;
+		for(int c = 0; c < classes; c++)
+			p[c] = w[bias + c];
+		for(int k = from; k < to; k++){
+			int t = keys[k];
+			if(t < 0 || t >= columns)
+				continue;
+			int base = t * classes;
+			for(int c = 0; c < classes; c++)
+				p[c] += values[k] * w[base + c];
+		}
+		double max = Double.NEGATIVE_INFINITY;
+		for(int c = 0; c < classes; c++)
+			max = Math.max(max, p[c]);
+		double sum = 0;
+		for(int c = 0; c < classes; c++){
+			p[c] = Math.exp(p[c] - max);
+			sum += p[c];
+		}
+		for(int c = 0; c < classes; c++)
+			p[c] /= sum;
+		return p;
+	}
+	
+	private void checkTrained(){
+		if(weights == null)
+			throw new IllegalStateException("Train the model first");
+	}
+	
+	/**
+	 * Sparse mini-batch gradient of one SGD thread, allocated once per training. Terms get a slot in order of first 
+	 * use, found through an open addressing table, and the gradient of slot j for class c is at j * classes + c.
+	 */
+	private static class Scratch {
+		
+		private static final int EMPTY = -1;
+		
+		private final int classes;
+		
+		private final double[] p;
+		
+		private final double[] bias;
+		
+		private double[] gradient;
+		
+		private int[] terms;
+		
+		private int count;
+		/**
+		 * term of each table position, EMPTY when free
+		 */
+		private int[] keys;
+		
+		private int[] slots;
+		
+		private Scratch(int classes, int expectedTerms){
+			this.classes = classes;
+			this.p = new double[classes];
+			this.bias = new double[classes];
+			int capacity = Integer.highestOneBit(Math.max(16, expectedTerms) * 2 - 1) * 2;
+			this.keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			this.slots = new int[capacity];
+			this.terms = new int[capacity / 2];
+			this.gradient = new double[capacity / 2 * classes];
+		}
+		/**
+		 * @return the slot of the term, added if new
+		 */
+		private int slot(int term){
+			int mask = keys.length - 1;
+			int i = hash(term) & mask;
+			while(keys[i] != EMPTY){
+				if(keys[i] == term)
+					return slots[i];
+				i = (i + 1) & mask;
+			}
+			if(count * 2 >= keys.length){
+				grow();
+				return slot(term);
+			}
+			keys[i] = term;
+			slots[i] = count;
+			terms[count] = term;
+			return count++;
+		}
+		
+		private void grow(){
+			int capacity = keys.length * 2;
+			keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			slots = new int[capacity];
+			terms = Arrays.copyOf(terms, capacity / 2);
+			gradient = Arrays.copyOf(gradient, capacity / 2 * classes);
+			int mask = capacity - 1;
+			for(int j = 0; j < count; j++){
+				int i = hash(terms[j]) & mask;
+				while(keys[i] != EMPTY)
+					i = (i + 1) & mask;
+				keys[i] = terms[j];
+				slots[i] = j;
+			}
+		}
+		private static int hash(int term){
+			int h = term * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+		/**
+		 * Empties the gradient, touching only the used slots
+		 */
+		private void clear(){
+			int mask = keys.length - 1;
+			for(int j = 0; j < count; j++){
+				int i = hash(terms[j]) & mask;
+				while(keys[i] != terms[j])
+					i = (i + 1) & mask;
+				keys[i] = EMPTY;
+			}
+			Arrays.fill(gradient, 0, count * classes, 0);
+			Arrays.fill(bias, 0);
+			count = 0;
+		}
+	}
+	
+	private static SparseMatrix toMatrix(List<Vector> vectors){
+		SparseMatrix m = new SparseMatrix(vectors.size(), vectors.size() * 16);
+		for(Vector v : vectors)
+			m.addRow(v);
+		return m;
+	}
+	
+	private static void shuffle(int[] a, Random random){
+		for(int i = a.length - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+	
+	private static double dot(double[] a, double[] b){
+		double sum = 0;
+		for(int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+	/**
+	 * y += a * x
+	 */
+	private static void axpy(double a, double[] x, double[] y){
+		for(int i = 0; i < x.length; i++)
+			y[i] += a * x[i];
+	}
+	
+	private static int argmax(double[] x){
+		int best = 0;
+		for(int i = 1; i < x.length; i++){
+			if(x[i] > x[best])
+				best = i;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,214 @@
+package text.vectorization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A read only Dictionary opened from a file written by Dictionary.save. The file is memory mapped and every 
+ * lookup works on the mapping, so opening takes milliseconds whatever the vocabulary size and several JVMs 
+ * share one copy through the page cache. 
+ * File layout, big endian: magic, version, doc count, term count, largest id, the term offsets into the string 
+ * pool in sorted term order, the id of each sorted term, the sorted position of each id, the document frequency 
+ * of each id, and the pool of UTF-8 terms sorted by their bytes.
+ * @author Apurv
+ */
+public class MappedDictionary implements IdfSource {
+	
+	static final int MAGIC = 0x44494354;
+	
+	static final int VERSION = 1;
+	
+	static final int HEADER = 20;
+	
+	private final ByteBuffer data;
+	
+	private final int docs;
+	
+	private final int size;
+	
+	private final int maxId;
+	
+	private final int offsetsAt;
+	
+	private final int idsAt;
+	
+	private final int positionsAt;
+	
+	private final int dfAt;
+	
+	private final int poolAt;
+	
+	private Dictionary.IdfSmoothing smoothing;
+	
+	private MappedDictionary(ByteBuffer data){
+		this.data = data;
+		if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+			throw new IllegalArgumentException("Not a dictionary file");
+		this.docs = data.getInt(8);
+		this.size = data.getInt(12);
+		this.maxId = data.getInt(16);
+		this.offsetsAt = HEADER;
+		this.idsAt = offsetsAt + 4 * (size + 1);
+		this.positionsAt = idsAt + 4 * size;
+		this.dfAt = positionsAt + 4 * (maxId + 1);
+		this.poolAt = dfAt + 4 * (maxId + 1);
+		this.smoothing = Dictionary.IdfSmoothing.PLAIN;
+	}
+	/**
+	 * Maps a dictionary file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static MappedDictionary open(String file) throws IOException{
+		FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		try{
+			return new MappedDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}finally{
+			//the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+	/**
+	 * @param smoothing the idf variant returned by idf, plain by default
+	 */
+	public void setSmoothing(Dictionary.IdfSmoothing smoothing) {
+		this.smoothing = smoothing;
+	}
+	/**
+	 * @return the number of documents the dictionary was built from
+	 */
+	public int getDocs(){
+		return docs;
+	}
+	/**
+	 * @return the number of terms
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * @return the largest term id
+	 */
+	public int maxId(){
+		return maxId;
+	}
+	/**
+	 * gets the numeric mapping of the word
+	 * @param term
+	 * @return the id of the term, 0 if the term is not in the dictionary
+	 */
+	public int id(String term){
+		int pos = find(term.getBytes(StandardCharsets.UTF_8));
+		return pos < 0 ? 0 : data.getInt(idsAt + 4 * pos);
+	}
+	/**
+	 * Checks if the word is found the contextual vocabulary
+	 * @param term
+	 * @return
+	 */
+	public boolean contains(String term){
+		return id(term) > 0;
+	}
+	/**
+	 * Reverse lookup of a term id
+	 * @param id
+	 * @return the term, null if no term has this id
+	 */
+	public String term(int id){
+		if(id < 1 || id > maxId)
+			return null;
+		int pos = data.getInt(positionsAt + 4 * id);
+		if(pos < 0)
+			return null;
+		int from = data.getInt(offsetsAt + 4 * pos);
+		int to = data.getInt(offsetsAt + 4 * (pos + 1));
+		byte[] bytes = new byte[to - from];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = data.get(poolAt + from + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	/**
+	 * @param id
+	 * @return the number of documents containing the term, 0 for unknown ids
+	 */
+	public int df(int id){
+		if(id < 1 || id > maxId)
+			return 0;
+		return data.getInt(dfAt + 4 * id);
+	}
+	/**
+	 * Idf of a term id, computed from the stored document frequency
+	 * @param termId
+	 * @return the idf, 0 for unknown ids
+	 */
+	@Override
+	public double idf(int termId){
+		int df = df(termId);
+		if(df == 0)
+			return 0d;
+		return smoothing.idf(docs, df);
+	}
+	/**
+	 * This method gets the idf of a term from dictionary
+	 * @param term
+	 * @return the idf, null if the term is unknown
+	 */
+	public Double idf(String term){
+		int id = id(term);
+		if(id == 0)
+			return null;
+		return idf(id);
+	}
+	/**
+	 * Builds the TF vector of a document from its terms, keys are term ids. 
+	 * Terms which are not in the dictionary are skipped.
+	 * @param terms
+	 * @return
+	 */
+	public Vector toVector(List<String> terms){
+		Vector v = new Vector(terms.size());
+		for(int i = 0; i < terms.size(); i++){
+			int id = id(terms.get(i));
+			if(id > 0)
+				v.increment(id, 1d);
+		}
+		return v;
+	}
+	/**
+	 * Binary search of the sorted terms, returns the sorted position or -1
+	 */
+	private int find(byte[] key){
+		int lo = 0, hi = size - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(mid, key);
+			if(cmp < 0)
+				lo = mid + 1;
+			else if(cmp > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	/**
+	 * Compares the term at a sorted position with key, byte by byte as unsigned values
+	 */
+	private int compare(int pos, byte[] key){
+		int from = data.getInt(offsetsAt + 4 * pos);
+		int length = data.getInt(offsetsAt + 4 * (pos + 1)) - from;
+		int n = Math.min(length, key.length);
+		for(int i = 0; i < n; i++){
+			int diff = (data.get(poolAt + from + i) & 0xFF) - (key[i] & 0xFF);
+			if(diff != 0)
+				return diff;
+		}
+		return length - key.length;
+	}
+}
@@ -0,0 +1,98 @@
+package text.vectorization;
+
+import java.util.Random;
+
+/**
+ * MinHash signatures of the key sets of vectors. The fraction of equal positions in two signatures estimates 
+ * the Jaccard similarity of the two sets of term ids. Use MinHashLsh to find candidate pairs from signatures.
+ * The generator is immutable and can be used by several threads.
+ * @author Apurv
+ */
+public class MinHash {
+	
+	/**
+	 * multiplier and offset of each hash function (a * x + b) >>> 32, multipliers are odd
+	 */
+	private final long[] a;
+	
+	private final long[] b;
+	
+	public MinHash(int numHashes, long seed){
+		if(numHashes < 1)
+			throw new IllegalArgumentException("at least one hash function is needed");
+		Random random = new Random(seed);
+		a = new long[numHashes];
+		b = new long[numHashes];
+		for(int i = 0; i < numHashes; i++){
+			a[i] = random.nextLong() | 1L;
+			b[i] = random.nextLong();
+		}
+	}
+	/**
+	 * @return the length of a signature
+	 */
+	public int size(){
+		return a.length;
+	}
+	/**
+	 * Computes the signature of the key set of a vector. The vector is frozen.
+	 * An empty vector has a signature of Integer.MAX_VALUE everywhere.
+	 * @param v
+	 * @return
+	 */
+	public int[] signature(Vector v){
+		v.freeze();
+		int[] sig = new int[a.length];
+		for(int i = 0; i < sig.length; i++)
+			sig[i] = Integer.MAX_VALUE;
+		for(int j = 0; j < v.size(); j++){
+			long key = v.keyAt(j) * 0x9E3779B97F4A7C15L;
+			for(int i = 0; i < sig.length; i++){
+				int h = (int) ((a[i] * key + b[i]) >>> 33);
+				if(h < sig[i])
+					sig[i] = h;
+			}
+		}
+		return sig;
+	}
+	/**
+	 * Estimated Jaccard similarity, the fraction of positions where the signatures agree
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public static double estimate(int[] x, int[] y){
+		int same = 0;
+		for(int i = 0; i < x.length; i++){
+			if(x[i] == y[i])
+				same++;
+		}
+		return (double) same / x.length;
+	}
+	/**
+	 * Exact Jaccard similarity of the key sets of two vectors, by a merge of their sorted keys. Vectors are frozen.
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public static double jaccard(Vector x, Vector y){
+		x.freeze();
+		y.freeze();
+		int i = 0, j = 0, common = 0;
+		while(i < x.size() && j < y.size()){
+			int kx = x.keyAt(i);
+			int ky = y.keyAt(j);
+			if(kx == ky){
+				common++;
+				i++;
+				j++;
+			}else if(kx < ky){
+				i++;
+			}else{
+				j++;
+			}
+		}
+		int union = x.size() + y.size() - common;
+		return union == 0 ? 1d : (double) common / union;
+	}
+}
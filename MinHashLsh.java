@@ -0,0 +1,160 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Banded locality sensitive hashing over MinHash signatures, to find near duplicate documents without comparing 
+ * all pairs. A signature of bands * rows values is cut into bands, two documents become a candidate pair when all 
+ * rows of at least one band are equal. A pair with Jaccard similarity s is found with probability 1 - (1 - s^rows)^bands.
+ * Only one hash per band and document is kept. Candidates are found by sorting the band hashes, so memory stays 
+ * at a few bytes per band and document. Candidates should be checked with an exact similarity, see findSimilarPairs.
+ * @author Apurv
+ */
+public class MinHashLsh {
+	
+	/**
+	 * Receives candidate pairs, first < second
+	 */
+	public interface PairConsumer {
+		public void pair(int first, int second);
+	}
+	
+	private final int bands;
+	
+	private final int rows;
+	/**
+	 * hash of every band of every document
+	 */
+	private int[][] bandHashes;
+	
+	private int docs;
+	/**
+	 * buckets with more documents than this are skipped, they are usually empty or boilerplate documents
+	 */
+	private int maxBucketSize;
+	
+	public MinHashLsh(int bands, int rows){
+		if(bands < 1 || rows < 1)
+			throw new IllegalArgumentException("bands and rows must be positive");
+		this.bands = bands;
+		this.rows = rows;
+		this.bandHashes = new int[bands][1024];
+		this.docs = 0;
+		this.maxBucketSize = Integer.MAX_VALUE;
+	}
+	/**
+	 * @param maxBucketSize buckets with more documents are skipped when pairs are generated
+	 */
+	public void setMaxBucketSize(int maxBucketSize) {
+		this.maxBucketSize = maxBucketSize;
+	}
+	/**
+	 * @return the signature length this index expects, bands * rows
+	 */
+	public int signatureSize(){
+		return bands * rows;
+	}
+	/**
+	 * Adds the signature of the next document
+	 * @param signature
+	 * @return the document number, from 0
+	 */
+	public int add(int[] signature){
+		if(signature.length != bands * rows)
+			throw new IllegalArgumentException("signature must have " + (bands * rows) + " values");
+		if(docs == bandHashes[0].length){
+			for(int b = 0; b < bands; b++)
+				bandHashes[b] = Arrays.copyOf(bandHashes[b], docs * 2);
+		}
+		for(int b = 0; b < bands; b++){
+			int h = 0x2545F491;
+			for(int r = 0; r < rows; r++){
+				h = (h ^ signature[b * rows + r]) * 0x01000193;
+				h ^= h >>> 15;
+			}
+			bandHashes[b][docs] = h;
+		}
+		return docs++;
+	}
+	/**
+	 * @return the number of documents added
+	 */
+	public int size(){
+		return docs;
+	}
+	/**
+	 * Emits every candidate pair once. Pairs found in several bands are reported for the first band only, 
+	 * not counting bands where their bucket was skipped by setMaxBucketSize.
+	 * @param consumer
+	 */
+	public void forEachCandidatePair(PairConsumer consumer){
+		long[] packed = new long[docs];
+		//hashes of the buckets skipped for their size in each band, sorted, a pair in them was not reported
+		int[][] skipped = new int[bands][];
+		for(int b = 0; b < bands; b++){
+			int[] skippedHashes = new int[0];
+			int skippedCount = 0;
+			int[] hashes = bandHashes[b];
+			//hash in the high half, document in the low half, sorting groups the buckets
+			for(int d = 0; d < docs; d++)
+				packed[d] = ((long) hashes[d] << 32) | d;
+			Arrays.parallelSort(packed);
+			int start = 0;
+			while(start < docs){
+				int end = start + 1;
+				while(end < docs && (packed[end] >>> 32) == (packed[start] >>> 32))
+					end++;
+				if(end - start > 1 && end - start <= maxBucketSize){
+					for(int i = start; i < end; i++){
+						int x = (int) packed[i];
+						for(int j = i + 1; j < end; j++){
+							int y = (int) packed[j];
+							if(!collidedBefore(x, y, b, skipped))
+								consumer.pair(x, y);
+						}
+					}
+				}else if(end - start > maxBucketSize){
+					if(skippedCount == skippedHashes.length)
+						skippedHashes = Arrays.copyOf(skippedHashes, Math.max(4, skippedCount * 2));
+					skippedHashes[skippedCount++] = (int) (packed[start] >>> 32);
+				}
+				start = end;
+			}
+			//buckets come out in increasing order of the signed hash, the list is already sorted
+			skipped[b] = Arrays.copyOf(skippedHashes, skippedCount);
+		}
+	}
+	/**
+	 * Finds all pairs of documents whose exact Jaccard similarity of term ids is at least minJaccard. 
+	 * Documents are signed, indexed, candidates generated and then checked exactly.
+	 * @param vectors -- documents, the pair numbers are their positions in the list
+	 * @param minHash -- generator of signatures of length bands * rows
+	 * @param minJaccard
+	 * @param consumer
+	 */
+	public void findSimilarPairs(final List<Vector> vectors, MinHash minHash, final double minJaccard, final PairConsumer consumer){
+		if(docs != 0)
+			throw new IllegalStateException("findSimilarPairs needs an empty index");
+		for(int i = 0; i < vectors.size(); i++)
+			add(minHash.signature(vectors.get(i)));
+		forEachCandidatePair(new PairConsumer(){
+			public void pair(int first, int second){
+				if(MinHash.jaccard(vectors.get(first), vectors.get(second)) >= minJaccard)
+					consumer.pair(first, second);
+			}
+		});
+	}
+	
+	/**
+	 * True if x and y were already reported, that is they shared a bucket of an earlier band which was not skipped
+	 */
+	private boolean collidedBefore(int x, int y, int band, int[][] skipped){
+		for(int b = 0; b < band; b++){
+			int h = bandHashes[b][x];
+			if(h == bandHashes[b][y] && Arrays.binarySearch(skipped[b], h) < 0)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,294 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Multinomial Naive Bayes on sparse vectors, the in process replacement of NaiveBayes.fit(..., 'dist', 'mn') in NBC2.m.
+ * Keys of the vectors are term ids and values are term counts or weights. Counts are kept per class in primitive 
+ * arrays indexed by term id. Training is a single pass, batches are split into partitions counted in parallel and 
+ * merged. update adds one more document at any time. Prediction is a sparse dot product of the document with the 
+ * log probabilities of each class, with Laplace smoothing.
+ * Labels are any integers, for example the 1 and 2 of labelOutputFile.tsv.
+ * Updates are not synchronized, predictions may run concurrently once training is done.
+ * @author Apurv
+ */
+public class NaiveBayes {
+	
+	private int[] labels;
+	/**
+	 * weight of every term in every class, by class index and term id
+	 */
+	private double[][] termCounts;
+	/**
+	 * total term weight of every class
+	 */
+	private double[] classTotals;
+	
+	private long[] classDocs;
+	
+	private long docs;
+	/**
+	 * largest term id seen plus one
+	 */
+	private int columns;
+	
+	private double alpha;
+	/**
+	 * log probabilities derived from the counts, rebuilt after the counts change
+	 */
+	private volatile double[][] logProbs;
+	
+	private volatile double[] logPriors;
+	
+	public NaiveBayes(double alpha){
+		if(alpha < 0)
+			throw new IllegalArgumentException("alpha must not be negative");
+		this.alpha = alpha;
+		this.labels = new int[0];
+		this.termCounts = new double[0][];
+		this.classTotals = new double[0];
+		this.classDocs = new long[0];
+		this.columns = 0;
+	}
+	/**
+	 * Laplace smoothing, alpha = 1
+	 */
+	public NaiveBayes(){
+		this(1d);
+	}
+	/**
+	 * Trains on a batch of documents, counting partitions in parallel and merging them into this model.
+	 * @param vectors
+	 * @param labels -- label of each vector
+	 */
+	public void train(final List<Vector> vectors, final int[] labels){
+		if(labels.length < vectors.size())
+			throw new IllegalArgumentException("one label per vector is needed");
+		int partitions = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), vectors.size() / 1000));
+		final int step = (vectors.size() + partitions - 1) / partitions;
+		NaiveBayes[] parts = new NaiveBayes[partitions];
+		IntStream.range(0, partitions).parallel().forEach(p -> {
+			NaiveBayes part = new NaiveBayes(alpha);
+			for(int i = p * step; i < Math.min(vectors.size(), (p + 1) * step); i++)
+				part.count(vectors.get(i), labels[i]);
+			parts[p] = part;
+		});
+		for(NaiveBayes part : parts)
+			merge(part);
+	}
+	/**
+	 * Trains on the rows of a matrix, counting partitions in parallel and merging them into this model.
+	 * @param m
+	 * @param labels -- label of each row
+	 */
+	public void train(final SparseMatrix m, final int[] labels){
+		if(labels.length < m.rows())
+			throw new IllegalArgumentException("one label per row is needed");
+		int partitions = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), m.rows() / 1000));
+		final int step = (m.rows() + partitions - 1) / partitions;
+		final int[] rowPtr = m.rowPtr();
+		final int[] colIdx = m.colIdx();
+		final double[] values = m.values();
+		NaiveBayes[] parts = new NaiveBayes[partitions];
+		IntStream.range(0, partitions).parallel().forEach(p -> {
+			NaiveBayes part = new NaiveBayes(alpha);
+			for(int i = p * step; i < Math.min(m.rows(), (p + 1) * step); i++)
+				part.count(colIdx, values, rowPtr[i], rowPtr[i + 1], labels[i]);
+			parts[p] = part;
+		});
+		for(NaiveBayes part : parts)
+			merge(part);
+	}
+	/**
+	 * Adds one document to the model, for online learning
+	 * @param v
+	 * @param label
+	 */
+	public void update(Vector v, int label){
+		count(v, label);
+		invalidate();
+	}
+	/**
+	 * Adds the counts of another model, trained for example on another partition of the data
+	 * @param other
+	 */
+	public void merge(NaiveBayes other){
+		for(int c = 0; c < other.labels.length; c++){
+			int k = classIndex(other.labels[c]);
+			double[] from = other.termCounts[c];
+			ensureColumns(k, from.length);
+			double[] to = termCounts[k];
+			for(int t = 0; t < from.length; t++)
+				to[t] += from[t];
+			classTotals[k] += other.classTotals[c];
+			classDocs[k] += other.classDocs[c];
+		}
+		docs += other.docs;
+		columns = Math.max(columns, other.columns);
+		invalidate();
+	}
+	/**
+	 * @return the labels seen in training
+	 */
+	public int[] labels(){
+		return labels.clone();
+	}
+	/**
+	 * Unnormalized log posterior of every class, in the order of labels()
+	 * @param v
+	 * @return
+	 */
+	public double[] logPosterior(Vector v){
+		v.freeze();
+		double[][] lp = logProbs();
+		double[] priors = logPriors;
+		double[] res = priors.clone();
+		for(int c = 0; c < lp.length; c++){
+			double[] table = lp[c];
+			//terms never seen in training have the same probability in every class and are left out
+			for(int i = 0; i < v.size(); i++){
+				int t = v.keyAt(i);
+				if(t >= 0 && t < table.length)
+					res[c] += v.valueAt(i) * table[t];
+			}
+		}
+		return res;
+	}
+	/**
+	 * Predicts the label of a document
+	 * @param v
+	 * @return
+	 */
+	public int predict(Vector v){
+		if(labels.length == 0)
+			throw new IllegalStateException("Train the model first");
+		return labels[argmax(logPosterior(v))];
+	}
+	/**
+	 * Predicts the label of every row, rows are classified in parallel
+	 * @param m
+	 * @return
+	 */
+	public int[] predict(final SparseMatrix m){
+		if(labels.length == 0)
+			throw new IllegalStateException("Train the model first");
+		final double[][] lp = logProbs();
+		final double[] priors = logPriors;
+		final int[] rowPtr = m.rowPtr();
+		final int[] colIdx = m.colIdx();
+		final double[] values = m.values();
+		final int[] res = new int[m.rows()];
+		IntStream.range(0, m.rows()).parallel().forEach(i -> {
+			int best = 0;
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for(int c = 0; c < lp.length; c++){
+				double score = priors[c];
+				double[] table = lp[c];
+				for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++){
+					if(colIdx[p] < table.length)
+						score += values[p] * table[colIdx[p]];
+				}
+				if(score > bestScore){
+					bestScore = score;
+					best = c;
+				}
+			}
+			res[i] = labels[best];
+		});
+		return res;
+	}
+	
+	private void count(Vector v, int label){
+		v.freeze();
+		int k = classIndex(label);
+		if(v.size() > 0)
+			ensureColumns(k, v.keyAt(v.size() - 1) + 1);
+		double[] counts = termCounts[k];
+		for(int i = 0; i < v.size(); i++){
+			int t = v.keyAt(i);
+			if(t < 0)
+				throw new IllegalArgumentException("Negative term id " + t);
+			counts[t] += v.valueAt(i);
+			classTotals[k] += v.valueAt(i);
+		}
+		classDocs[k]++;
+		docs++;
+	}
+	
+	private void count(int[] colIdx, double[] values, int from, int to, int label){
+		int k = classIndex(label);
+		if(to > from)
+			ensureColumns(k, colIdx[to - 1] + 1);
+		double[] counts = termCounts[k];
+		for(int p = from; p < to; p++){
+			counts[colIdx[p]] += values[p];
+			classTotals[k] += values[p];
+		}
+		classDocs[k]++;
+		docs++;
+	}
+	
+	private int classIndex(int label){
+		for(int c = 0; c < labels.length; c++){
+			if(labels[c] == label)
+				return c;
+		}
+		int c = labels.length;
+		labels = Arrays.copyOf(labels, c + 1);
+		labels[c] = label;
+		termCounts = Arrays.copyOf(termCounts, c + 1);
+		termCounts[c] = new double[columns];
+		classTotals = Arrays.copyOf(classTotals, c + 1);
+		classDocs = Arrays.copyOf(classDocs, c + 1);
+		return c;
+	}
+	
+	private void ensureColumns(int k, int n){
+		if(n > columns)
+			columns = n;
+		if(termCounts[k].length < n)
+			termCounts[k] = Arrays.copyOf(termCounts[k], Math.max(n, termCounts[k].length * 3 / 2));
+	}
+	
+	private void invalidate(){
+		logProbs = null;
+		logPriors = null;
+	}
+	/**
+	 * log((count + alpha) / (total + alpha * V)) per class and term, V being the number of columns
+	 */
+	private double[][] logProbs(){
+		double[][] lp = logProbs;
+		if(lp != null)
+			return lp;
+		synchronized(this){
+			if(logProbs != null)
+				return logProbs;
+			lp = new double[labels.length][];
+			double[] priors = new double[labels.length];
+			for(int c = 0; c < labels.length; c++){
+				double denominator = Math.log(classTotals[c] + alpha * columns);
+				double[] table = new double[columns];
+				double[] counts = termCounts[c];
+				for(int t = 0; t < columns; t++)
+					table[t] = Math.log((t < counts.length ? counts[t] : 0d) + alpha) - denominator;
+				lp[c] = table;
+				priors[c] = Math.log((double) classDocs[c] / docs);
+			}
+			logPriors = priors;
+			logProbs = lp;
+			return lp;
+		}
+	}
+	
+	private static int argmax(double[] x){
+		int best = 0;
+		for(int i = 1; i < x.length; i++){
+			if(x[i] > x[best])
+				best = i;
+		}
+		return best;
+	}
+}
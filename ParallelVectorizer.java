@@ -0,0 +1,127 @@
+package text.vectorization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * This class parses and vectorizes batches of documents on several threads.
+ * Parsers keep state and are not thread safe, so every worker thread gets its own parser from the supplier.
+ * The batch is split into contiguous chunks and results are put back at the index of their document, 
+ * so the output order is the input order however the work is scheduled.
+ * @author Apurv
+ */
+public class ParallelVectorizer {
+	
+	private ExecutorService executor;
+	/**
+	 * number of chunks a batch is split into
+	 */
+	private int chunks;
+	
+	private ThreadLocal<Parser> parsers;
+	
+	public ParallelVectorizer(Supplier<? extends Parser> parserFactory, ExecutorService executor, int threads){
+		this.parsers = ThreadLocal.withInitial(parserFactory);
+		this.executor = executor;
+		//a few chunks per thread evens out documents of different length
+		this.chunks = Math.max(1, threads) * 4;
+	}
+	/**
+	 * Uses the common fork join pool
+	 * @param parserFactory
+	 */
+	public ParallelVectorizer(Supplier<? extends Parser> parserFactory){
+		this(parserFactory, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+	}
+	/**
+	 * Parses every text, the tokens of texts.get(i) are at index i of the result.
+	 * @param texts
+	 * @return
+	 */
+	public List<ArrayList<String>> parse(final List<String> texts){
+		final ArrayList<ArrayList<String>> res = new ArrayList<ArrayList<String>>(texts.size());
+		for(int i = 0; i < texts.size(); i++)
+			res.add(null);
+		forEachChunk(texts.size(), new Chunk(){
+			public void run(int from, int to){
+				Parser parser = parsers.get();
+				for(int i = from; i < to; i++)
+					res.set(i, parser.parse(texts.get(i)));
+			}
+		});
+		return res;
+	}
+	/**
+	 * Parses every text and adds it to the dictionary as one document. Parsing runs in parallel, documents are 
+	 * added in input order so that term ids are the same on every run.
+	 * @param texts
+	 * @param dict
+	 */
+	public void addDocuments(List<String> texts, Dictionary dict){
+		List<ArrayList<String>> terms = parse(texts);
+		for(int i = 0; i < terms.size(); i++)
+			dict.addDocument(terms.get(i));
+	}
+	/**
+	 * Parses every text and builds its frozen TF vector, or TF IDF vector. The vector of texts.get(i) is at index i.
+	 * The dictionary idf table must be frozen for TF IDF.
+	 * @param texts
+	 * @param dict
+	 * @param tfidf -- multiply each weight by its idf
+	 * @param normalize -- normalize each vector by its L2 norm
+	 * @return
+	 */
+	public Vector[] vectorize(final List<String> texts, final Dictionary dict, final boolean tfidf, final boolean normalize){
+		final Vector[] res = new Vector[texts.size()];
+		forEachChunk(texts.size(), new Chunk(){
+			public void run(int from, int to){
+				Parser parser = parsers.get();
+				for(int i = from; i < to; i++){
+					Vector v = dict.toVector(parser.parse(texts.get(i)));
+					if(tfidf)
+						v.applyTFIDF(dict, normalize);
+					else if(normalize)
+						v.normalizeL2InPlace();
+					res[i] = v.freeze();
+				}
+			}
+		});
+		return res;
+	}
+	
+	private interface Chunk {
+		void run(int from, int to);
+	}
+	/**
+	 * Splits 0..n into contiguous ranges, runs them on the executor and waits for all of them
+	 */
+	private void forEachChunk(int n, final Chunk chunk){
+		int step = Math.max(1, (n + chunks - 1) / chunks);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int start = 0; start < n; start += step){
+			final int from = start;
+			final int to = Math.min(n, start + step);
+			futures.add(executor.submit(new Callable<Void>(){
+				public Void call(){
+					chunk.run(from, to);
+					return null;
+				}
+			}));
+		}
+		try{
+			for(Future<Void> f : futures)
+				f.get();
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while vectorizing", ex);
+		}catch(ExecutionException ex){
+			throw new IllegalStateException("Vectorization failed", ex.getCause());
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.util.HashSet;
 /**
  * A template for parser. This template can be used to create other parsers 
  * All we need is a method to parse and get an araylist of tokens.
+ * Tokens can also be streamed to a TokenConsumer so that no list is built.
  * Code is open for extension but closed for manipulations
  * @author Apurv
  *
@@ -15,4 +16,22 @@ public interface Parser {
 	
 	public void setStopWords(HashSet<String> words);
 	
+	/**
+	 * Pushes the tokens of text to the consumer in order. 
+	 * Parsers which can stream override this, the default parses to a list first.
+	 * @param text
+	 * @param consumer
+	 */
+	public default void parse(CharSequence text, TokenConsumer consumer){
+		ArrayList<String> tokens = parse(text.toString());
+		char[] buffer = new char[16];
+		for(int i = 0; i < tokens.size(); i++){
+			String s = tokens.get(i);
+			if(s.length() > buffer.length)
+				buffer = new char[s.length()];
+			s.getChars(0, s.length(), buffer, 0);
+			consumer.token(buffer, 0, s.length());
+		}
+	}
+	
 }
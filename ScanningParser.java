@@ -0,0 +1,206 @@
+package text.vectorization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This parser splits text on a delimiter regex like SimpleRegexParser, without String.split.
+ * The regex is compiled once and its matcher is reused. Common delimiters ("\\s+", "\\W+", "[^a-zA-Z]+", single 
+ * characters) are recognised and handled by a plain character scan with no regex at all. Tokens are lowercased 
+ * into a reusable buffer and stemmed with a reusable Stemmer, so the only allocation per token is the resulting 
+ * String. Empty tokens are skipped.
+ * Stop words are checked on the token buffer before stemming. A parser instance keeps state and must not be shared between threads.
+ * @author Apurv
+ */
+public class ScanningParser implements Parser{
+	
+	/**
+	 * delimiters scanned without regex
+	 */
+	private enum Delimiter { WHITESPACE, NON_WORD, NON_LETTER, CHARACTER, REGEX }
+	
+	private boolean STEMMING;
+	
+	private boolean REMOVE_STOP_WORDS;
+	
+	private StopWordFilter stopWords;
+	
+	private Delimiter delimiter;
+	/**
+	 * delimiter character for Delimiter.CHARACTER
+	 */
+	private char delimiterChar;
+	
+	private Matcher matcher;
+	/**
+	 * lowercased characters of the current token
+	 */
+	private char[] buffer;
+	
+	private Stemmer stemmer;
+	
+	private TermCache stemCache = TermCache.STEMS;
+	
+	public ScanningParser(String regex, boolean stemming, boolean removeStopWords){
+		this.STEMMING = stemming;
+		this.REMOVE_STOP_WORDS = removeStopWords;
+		this.buffer = new char[64];
+		this.stemmer = new Stemmer();
+		if(regex.equals("\\s+") || regex.equals("\\s"))
+			this.delimiter = Delimiter.WHITESPACE;
+		else if(regex.equals("\\W+") || regex.equals("\\W"))
+			this.delimiter = Delimiter.NON_WORD;
+		else if(regex.equals("[^a-zA-Z]+") || regex.equals("[^a-zA-Z]"))
+			this.delimiter = Delimiter.NON_LETTER;
+		else if(regex.length() == 1 && ".$|()[{^?*+\\".indexOf(regex.charAt(0)) < 0){
+			this.delimiter = Delimiter.CHARACTER;
+			this.delimiterChar = regex.charAt(0);
+		}else{
+			this.delimiter = Delimiter.REGEX;
+			this.matcher = Pattern.compile(regex).matcher("");
+		}
+	}
+	
+	public ScanningParser(String regex, boolean stemming){
+		this(regex, stemming, false);
+	}
+	
+	public ScanningParser(String regex){
+		this(regex, false, false);
+	}
+	
+	/**
+	 * Sets the stop words. The set is copied, later changes to it are not seen by the parser.
+	 * @param words
+	 */
+	public void setStopWords(HashSet<String> words){
+		this.stopWords = words == null ? null : new StopWordFilter(words, false, false);
+	}
+	/**
+	 * Sets the stop words from a prepared filter, for example StopWordFilter.english()
+	 * @param filter
+	 */
+	public void setStopWordFilter(StopWordFilter filter){
+		this.stopWords = filter;
+	}
+	/**
+	 * Replaces the shared stem cache, for example by one with a different capacity
+	 * @param cache
+	 */
+	public void setStemCache(TermCache cache){
+		this.stemCache = cache;
+	}
+	/**
+	 * This method parses the input string. It has operations to remove stop words and stem the word. 
+	 * In case removal of stop word is set in constructor, then use setStopWords method to set stopword 
+	 * @param text
+	 * @return
+	 */
+	@Override
+	public ArrayList<String> parse(String text){
+		return parse((CharSequence) text);
+	}
+	/**
+	 * Parses any character sequence, see parse(String)
+	 * @param text
+	 * @return
+	 */
+	public ArrayList<String> parse(CharSequence text){
+		ArrayList<String> resultList = new ArrayList<String>();
+		scan(text, resultList, null);
+		return resultList;
+	}
+	/**
+	 * Streams the tokens to the consumer, no String is created at all.
+	 * @param text
+	 * @param consumer
+	 */
+	@Override
+	public void parse(CharSequence text, TokenConsumer consumer){
+		scan(text, null, consumer);
+	}
+	/**
+	 * Tokens go to resultList, or to the consumer when resultList is null
+	 */
+	private void scan(CharSequence text, ArrayList<String> resultList, TokenConsumer consumer){
+		if(this.REMOVE_STOP_WORDS && stopWords == null)
+			throw new IllegalStateException("populate stop words");
+		if(delimiter == Delimiter.REGEX){
+			matcher.reset(text);
+			int start = 0;
+			while(matcher.find()){
+				emit(text, start, matcher.start(), resultList, consumer);
+				start = matcher.end();
+			}
+			emit(text, start, text.length(), resultList, consumer);
+			matcher.reset("");
+			return;
+		}
+		int start = 0;
+		int n = text.length();
+		for(int i = 0; i < n; i++){
+			if(isDelimiter(text.charAt(i))){
+				emit(text, start, i, resultList, consumer);
+				start = i + 1;
+			}
+		}
+		emit(text, start, n, resultList, consumer);
+	}
+	/**
+	 * Same character classes as java.util.regex
+	 */
+	private boolean isDelimiter(char c){
+		switch(delimiter){
+		case WHITESPACE:
+			return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+		case NON_WORD:
+			return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_');
+		case NON_LETTER:
+			return !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'));
+		default:
+			return c == delimiterChar;
+		}
+	}
+	/**
+	 * Lowercases text[from, to) into the buffer, applies stop words and stemming and hands the token on
+	 */
+	private void emit(CharSequence text, int from, int to, ArrayList<String> resultList, TokenConsumer consumer){
+		int length = to - from;
+		if(length <= 0)
+			return;
+		if(length > buffer.length)
+			buffer = new char[Math.max(length, buffer.length * 2)];
+		for(int i = 0; i < length; i++)
+			buffer[i] = Character.toLowerCase(text.charAt(from + i));
+		if(this.REMOVE_STOP_WORDS && stopWords.contains(buffer, 0, length))
+			return;
+		if(resultList == null){
+			if(this.STEMMING){
+				int n = stemmer.stem(buffer, 0, length);
+				consumer.token(stemmer.getResultBuffer(), 0, n);
+			}else{
+				consumer.token(buffer, 0, length);
+			}
+			return;
+		}
+		String s = new String(buffer, 0, length);
+		if(this.STEMMING){
+			String stem = stemCache.get(s);
+			if(stem == null){
+				stem = stemmer.stemToString(s);
+				stemCache.put(s, stem);
+			}
+			s = stem;
+		}
+		if(resultList != null){
+			resultList.add(s);
+			return;
+		}
+		if(s.length() > buffer.length)
+			buffer = new char[s.length()];
+		s.getChars(0, s.length(), buffer, 0);
+		consumer.token(buffer, 0, s.length());
+	}
+}
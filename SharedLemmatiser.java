@@ -0,0 +1,39 @@
+package text.vectorization;
+
+import text.helper.Properties;
+import dragon.nlp.tool.lemmatiser.EngLemmatiser;
+
+/**
+ * One EngLemmatiser for the whole JVM, loaded from Properties.lemmatiserPath the first time a lemma is needed.
+ * Parsers that never lemmatise never load the WordNet data, and parser threads share a single copy of it.
+ * Calls to the lemmatiser are serialized since it is not known to be thread safe, put a TermCache in front of it.
+ * @author Apurv
+ */
+public final class SharedLemmatiser {
+	
+	private SharedLemmatiser(){
+	}
+	/**
+	 * Loaded by the class loader on first access, which makes the initialization lazy and thread safe
+	 */
+	private static class Holder {
+		private static final EngLemmatiser INSTANCE = new EngLemmatiser(Properties.lemmatiserPath, true, false);
+	}
+	/**
+	 * Loads the lemmatiser now instead of on first use, for callers that prefer to pay the cost at startup
+	 */
+	public static void load(){
+		Holder.INSTANCE.getClass();
+	}
+	/**
+	 * Lemmatises one word, loading the lemmatiser on first use
+	 * @param word
+	 * @return
+	 */
+	public static String lemma(String word){
+		EngLemmatiser lemmatiser = Holder.INSTANCE;
+		synchronized(lemmatiser){
+			return lemmatiser.stem(word);
+		}
+	}
+}
@@ -1,14 +1,12 @@
 package text.vectorization;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 
-import text.helper.Properties;
-import dragon.nlp.tool.lemmatiser.EngLemmatiser;
-
 /**
  * This class is used to parse the text.
+ * parse(String) may be called from several threads on one instance. The streaming parse(CharSequence, TokenConsumer) 
+ * reuses a token buffer of the instance, so use one instance per thread with it.
  * @author Apurv
  *
  */
@@ -20,11 +18,14 @@ public class SimpleRegexParser implements Parser{
 	
 	private boolean REMOVE_STOP_WORDS;
 	
-	private HashSet<String> stopWords;
-	
-	private static HashMap<String, String> lemmaCache = new HashMap<String, String>();
+	private StopWordFilter stopWords;
+	/**
+	 * characters of the token handed to a TokenConsumer
+	 */
+	private char[] buffer = new char[64];
+	private TermCache stemCache = TermCache.STEMS;
 	
-	private EngLemmatiser lemmatiser = new EngLemmatiser(Properties.lemmatiserPath, true, false);
+	private TermCache lemmaCache = TermCache.LEMMAS;
 	
 	public SimpleRegexParser(String regex, boolean stemming, boolean removeStopWords){
 		this.regex = regex;
@@ -44,8 +45,27 @@ public class SimpleRegexParser implements Parser{
 		this.REMOVE_STOP_WORDS = false;
 	}
 	
+	/**
+	 * Sets the stop words. The set is copied, later changes to it are not seen by the parser. When stemming is on, 
+	 * the stemmed forms of the words are added, so the list does not have to be prepared by hand.
+	 * @param words
+	 */
 	public void setStopWords(HashSet<String> words){
-		this.stopWords = words;
+		this.stopWords = words == null ? null : new StopWordFilter(words, STEMMING, false);
+	}
+	/**
+	 * Sets the stop words from a prepared filter, for example StopWordFilter.english()
+	 * @param filter
+	 */
+	public void setStopWordFilter(StopWordFilter filter){
+		this.stopWords = filter;
+	}
+	/**
+	 * Replaces the shared stem cache, for example by one with a different capacity
+	 * @param cache
+	 */
+	public void setStemCache(TermCache cache){
+		this.stemCache = cache;
 	}
 	/**
 	 * This method parses the input string. It has operations to remove stop words and stem the word. 
@@ -56,9 +76,25 @@ public class SimpleRegexParser implements Parser{
 	 */
 	@Override
 	public ArrayList<String> parse(String text){
+		ArrayList<String> resultList = new ArrayList<String>();
+		parse(text, resultList, null);
+		return resultList;
+	}
+	/**
+	 * Streams the tokens to the consumer, with the same processing as parse(String)
+	 * @param text
+	 * @param consumer
+	 */
+	@Override
+	public void parse(CharSequence text, TokenConsumer consumer){
+		parse(text.toString(), null, consumer);
+	}
+	/**
+	 * Tokens go to resultList, or to the consumer when resultList is null
+	 */
+	private void parse(String text, ArrayList<String> resultList, TokenConsumer consumer){
 		
 		String[] splits = text.split(regex);
-		ArrayList<String> resultList = new ArrayList<String>();
 		//if the string has to be processed
 		try{
 			for(int i = 0 ; i  < splits.length; i++){
@@ -72,7 +108,7 @@ public class SimpleRegexParser implements Parser{
 						throw new Exception("populate stop words");
 					}else{
 						if(!stopWords.contains(s) && !s.equals(""))
-							resultList.add(s);
+							emit(s, resultList, consumer);
 					}	
 				}
 				if(this.REMOVE_STOP_WORDS && !this.STEMMING){
@@ -80,22 +116,31 @@ public class SimpleRegexParser implements Parser{
 						throw new Exception("populate stop words");
 					}else{
 						if(!stopWords.contains(s) && !s.equals(""))
-							resultList.add(s);
+							emit(s, resultList, consumer);
 					}						
 				}
 				if(this.STEMMING && !s.equals("") && !this.REMOVE_STOP_WORDS){//if stemming has to be performed 
 					s = stem(s);
-					resultList.add(s);
+					emit(s, resultList, consumer);
 				}
 				if(!this.REMOVE_STOP_WORDS && !this.STEMMING)
-					resultList.add(s);
+					emit(s, resultList, consumer);
 				
 			}
 		}catch(Exception ex){
 			ex.printStackTrace();
 		}
-		
-		return resultList;
+	}
+	
+	private void emit(String s, ArrayList<String> resultList, TokenConsumer consumer){
+		if(resultList != null){
+			resultList.add(s);
+			return;
+		}
+		if(s.length() > buffer.length)
+			buffer = new char[s.length()];
+		s.getChars(0, s.length(), buffer, 0);
+		consumer.token(buffer, 0, s.length());
 	}	
 	
 	/**
@@ -104,7 +149,12 @@ public class SimpleRegexParser implements Parser{
 	 * @return
 	 */
 	public String stem(String text){
-		return Stemmer.stem(text);
+		String res = stemCache.get(text);
+		if(res == null){
+			res = Stemmer.forCurrentThread().stemToString(text);
+			stemCache.put(text, res);
+		}
+		return res;
     }
 	/**
 	 * THis methods stems the word such that new word is in the English dictionary
@@ -119,7 +169,7 @@ public class SimpleRegexParser implements Parser{
             String lemma = lemmaCache.get(words[i]);
             if(lemma == null)
             {
-                lemma = lemmatiser.stem(words[i]);
+                lemma = SharedLemmatiser.lemma(words[i]);
                 lemmaCache.put(words[i], lemma);
             }
             rootString = rootString.append(lemma+" ");
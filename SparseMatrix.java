@@ -0,0 +1,239 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A corpus matrix in compressed sparse row form, one row per document and one column per term id.
+ * Rows are appended from vectors, the non zeros of row i are colIdx[rowPtr[i]] to colIdx[rowPtr[i + 1] - 1] 
+ * in increasing column order, with their values at the same positions. Column count is the largest column plus one, 
+ * so arrays returned per column can be indexed by term id directly.
+ * Append rows from one thread, the read operations may then run concurrently.
+ * @author Apurv
+ */
+public class SparseMatrix {
+	
+	private int[] rowPtr;
+	
+	private int[] colIdx;
+	
+	private double[] values;
+	
+	private int rows;
+	
+	private int columns;
+	
+	public SparseMatrix(){
+		this(16, 256);
+	}
+	/**
+	 * @param expectedRows
+	 * @param expectedNonZeros
+	 */
+	public SparseMatrix(int expectedRows, int expectedNonZeros){
+		rowPtr = new int[Math.max(expectedRows, 1) + 1];
+		colIdx = new int[Math.max(expectedNonZeros, 1)];
+		values = new double[colIdx.length];
+		rows = 0;
+		columns = 0;
+	}
+	
+	private SparseMatrix(int[] rowPtr, int[] colIdx, double[] values, int rows, int columns){
+		this.rowPtr = rowPtr;
+		this.colIdx = colIdx;
+		this.values = values;
+		this.rows = rows;
+		this.columns = columns;
+	}
+	/**
+	 * Appends a vector as the next row. The vector is frozen, its keys must not be negative.
+	 * @param v
+	 * @return the row number, from 0
+	 */
+	public int addRow(Vector v){
+		v.freeze();
+		int n = v.size();
+		int start = rowPtr[rows];
+		if(start + n > colIdx.length){
+			int capacity = Math.max(start + n, colIdx.length * 2);
+			colIdx = Arrays.copyOf(colIdx, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		for(int i = 0; i < n; i++){
+			int column = v.keyAt(i);
+			if(column < 0)
+				throw new IllegalArgumentException("Negative column " + column);
+			colIdx[start + i] = column;
+			values[start + i] = v.valueAt(i);
+		}
+		if(n > 0 && colIdx[start + n - 1] >= columns)
+			columns = colIdx[start + n - 1] + 1;
+		if(rows + 2 > rowPtr.length)
+			rowPtr = Arrays.copyOf(rowPtr, rowPtr.length * 2);
+		rowPtr[rows + 1] = start + n;
+		return rows++;
+	}
+	
+	public int rows(){
+		return rows;
+	}
+	/**
+	 * @return the largest column plus one
+	 */
+	public int columns(){
+		return columns;
+	}
+	
+	public int nonZeros(){
+		return rowPtr[rows];
+	}
+	/**
+	 * Row pointers, row i is stored from rowPtr()[i] to rowPtr()[i + 1]. The array is shared, do not change it.
+	 * @return
+	 */
+	public int[] rowPtr(){
+		return rowPtr;
+	}
+	/**
+	 * Column of every non zero. The array is shared, do not change it.
+	 * @return
+	 */
+	public int[] colIdx(){
+		return colIdx;
+	}
+	/**
+	 * Value of every non zero. The array is shared, do not change it.
+	 * @return
+	 */
+	public double[] values(){
+		return values;
+	}
+	/**
+	 * Copy of row i as a frozen vector, usable with dotProduct, normalizedDotProduct and the rest of Vector.
+	 * Changes to the vector, for example by applyTFIDF, do not reach the matrix. Use rowPtr, colIdx and values 
+	 * to read rows without copying.
+	 * @param i
+	 * @return
+	 */
+	public Vector row(int i){
+		checkRow(i);
+		return Vector.frozen(colIdx, values, rowPtr[i], rowPtr[i + 1]);
+	}
+	/**
+	 * Dot product of row i with a dense vector indexed by column
+	 * @param i
+	 * @param x
+	 * @return
+	 */
+	public double rowDot(int i, double[] x){
+		double res = 0d;
+		for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++)
+			res += values[p] * x[colIdx[p]];
+		return res;
+	}
+	/**
+	 * Sparse matrix times dense vector, rows are computed in parallel
+	 * @param x -- dense vector of length columns()
+	 * @return a vector of length rows()
+	 */
+	public double[] multiply(final double[] x){
+		if(x.length < columns)
+			throw new IllegalArgumentException("vector must have " + columns + " values");
+		final double[] y = new double[rows];
+		IntStream.range(0, rows).parallel().forEach(i -> y[i] = rowDot(i, x));
+		return y;
+	}
+	/**
+	 * Sum of every column
+	 * @return
+	 */
+	public double[] columnSums(){
+		double[] res = new double[columns];
+		int nnz = nonZeros();
+		for(int p = 0; p < nnz; p++)
+			res[colIdx[p]] += values[p];
+		return res;
+	}
+	/**
+	 * Number of rows with a non zero in every column, the document frequency of every term
+	 * @return
+	 */
+	public int[] columnCounts(){
+		int[] res = new int[columns];
+		int nnz = nonZeros();
+		for(int p = 0; p < nnz; p++){
+			if(values[p] != 0)
+				res[colIdx[p]]++;
+		}
+		return res;
+	}
+	/**
+	 * Idf of every column computed from this matrix, one row per document
+	 * @param smoothing
+	 * @return
+	 */
+	public double[] idf(Dictionary.IdfSmoothing smoothing){
+		int[] df = columnCounts();
+		double[] res = new double[columns];
+		for(int c = 0; c < columns; c++){
+			if(df[c] > 0)
+				res[c] = smoothing.idf(rows, df[c]);
+		}
+		return res;
+	}
+	/**
+	 * Multiplies every value by the weight of its column, for example the array returned by idf
+	 * @param weights
+	 */
+	public void scaleColumns(double[] weights){
+		int nnz = nonZeros();
+		for(int p = 0; p < nnz; p++)
+			values[p] *= weights[colIdx[p]];
+	}
+	/**
+	 * Transpose, which is also this matrix in compressed sparse column form
+	 * @return a new matrix with one row per column of this one
+	 */
+	public SparseMatrix transpose(){
+		int nnz = nonZeros();
+		int[] ptr = new int[columns + 1];
+		for(int p = 0; p < nnz; p++)
+			ptr[colIdx[p] + 1]++;
+		for(int c = 0; c < columns; c++)
+			ptr[c + 1] += ptr[c];
+		int[] next = Arrays.copyOf(ptr, columns);
+		int[] idx = new int[nnz];
+		double[] val = new double[nnz];
+		//rows are visited in order, so every column comes out sorted by row
+		for(int i = 0; i < rows; i++){
+			for(int p = rowPtr[i]; p < rowPtr[i + 1]; p++){
+				int q = next[colIdx[p]]++;
+				idx[q] = i;
+				val[q] = values[p];
+			}
+		}
+		return new SparseMatrix(ptr, idx, val, columns, rows);
+	}
+	/**
+	 * Copy of rows from to to - 1
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public SparseMatrix slice(int from, int to){
+		if(from < 0 || to > rows || from > to)
+			throw new IndexOutOfBoundsException("rows " + from + " to " + to + " of " + rows);
+		int start = rowPtr[from];
+		int end = rowPtr[to];
+		int[] ptr = new int[to - from + 1];
+		for(int i = from; i <= to; i++)
+			ptr[i - from] = rowPtr[i] - start;
+		return new SparseMatrix(ptr, Arrays.copyOfRange(colIdx, start, end), 
+				Arrays.copyOfRange(values, start, end), to - from, columns);
+	}
+	
+	private void checkRow(int i){
+		if(i < 0 || i >= rows)
+			throw new IndexOutOfBoundsException("row " + i + " of " + rows);
+	}
+}
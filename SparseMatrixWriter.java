@@ -0,0 +1,256 @@
+package text.vectorization;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes vectors to a sparse file that matlab loads with load and spconvert, one "row column value" 
+ * line per non zero element, and the label of every row to a second file. See NBC2.m for the matlab side.
+ * Output goes through reusable byte buffers to file channels, numbers are formatted by hand, so memory stays 
+ * constant however many rows are written. Call close when done, it also writes the matrix size line.
+ * @author Apurv
+ */
+public class SparseMatrixWriter implements Closeable {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * longest number written: sign, 19 digits, point and decimals
+	 */
+	private static final int MAX_NUMBER_LENGTH = 48;
+	
+	private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 
+		10000000L, 100000000L, 1000000000L};
+	
+	private FileChannel dataChannel;
+	
+	private FileChannel labelChannel;
+	
+	private ByteBuffer dataBuffer;
+	
+	private ByteBuffer labelBuffer;
+	/**
+	 * scratch space for formatting digits
+	 */
+	private byte[] digits;
+	/**
+	 * number of decimals written for non integer values
+	 */
+	private int decimals;
+	/**
+	 * number of rows written, matlab rows start at 1
+	 */
+	private int rows;
+	/**
+	 * largest column written
+	 */
+	private int columns;
+	
+	public SparseMatrixWriter(String dataFile, String labelFile) throws IOException{
+		this.dataChannel = FileChannel.open(Paths.get(dataFile), StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			this.labelChannel = FileChannel.open(Paths.get(labelFile), StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}catch(IOException | RuntimeException ex){
+			dataChannel.close();
+			throw ex;
+		}
+		this.dataBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.labelBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.digits = new byte[20];
+		this.decimals = 6;
+		this.rows = 0;
+		this.columns = 0;
+	}
+	/**
+	 * Sets the number of decimals written for non integer values, between 0 and 9. Default is 6.
+	 * @param decimals
+	 */
+	public void setDecimals(int decimals){
+		if(decimals < 0 || decimals >= POWERS_OF_TEN.length)
+			throw new IllegalArgumentException("decimals must be between 0 and " + (POWERS_OF_TEN.length - 1));
+		this.decimals = decimals;
+	}
+	/**
+	 * Sets the number of columns of the matrix, normally the dictionary size. 
+	 * Without it the largest column written is used.
+	 * @param columns
+	 */
+	public void setColumns(int columns){
+		this.columns = Math.max(this.columns, columns);
+	}
+	/**
+	 * @return the number of rows written so far
+	 */
+	public int getRows() {
+		return rows;
+	}
+	/**
+	 * Writes the vector as the next row of the matrix and its label. The vector is frozen so that columns 
+	 * come out in increasing order.
+	 * @param v
+	 * @param label
+	 * @throws IOException
+	 */
+	public void write(Vector v, int label) throws IOException{
+		v.freeze();
+		int row = ++rows;
+		for(int i = 0; i < v.size(); i++)
+			writeEntry(row, v.keyAt(i), v.valueAt(i));
+		writeLabel(label);
+	}
+	/**
+	 * Writes columns[from, to) and their values as the next row
+	 */
+	private void writeRow(int[] columns, double[] values, int from, int to, int label) throws IOException{
+		int row = ++rows;
+		for(int p = from; p < to; p++)
+			writeEntry(row, columns[p], values[p]);
+		writeLabel(label);
+	}
+	
+	private void writeEntry(int row, int column, double value) throws IOException{
+		if(value == 0)
+			return;
+		ensureRoom(dataChannel, dataBuffer, 3 * MAX_NUMBER_LENGTH);
+		putLong(dataBuffer, row);
+		dataBuffer.put((byte) ' ');
+		putLong(dataBuffer, column);
+		dataBuffer.put((byte) ' ');
+		putDouble(dataBuffer, value);
+		dataBuffer.put((byte) '\n');
+		if(column > columns)
+			columns = column;
+	}
+	
+	private void writeLabel(int label) throws IOException{
+		ensureRoom(labelChannel, labelBuffer, MAX_NUMBER_LENGTH);
+		putLong(labelBuffer, label);
+		labelBuffer.put((byte) '\n');
+	}
+	/**
+	 * Writes every row of the matrix with its label. Row i of the matrix becomes the next row of the file.
+	 * @param m
+	 * @param labels -- one label per row
+	 * @throws IOException
+	 */
+	public void write(SparseMatrix m, int[] labels) throws IOException{
+		if(labels.length < m.rows())
+			throw new IllegalArgumentException("one label per row is needed");
+		int[] rowPtr = m.rowPtr();
+		int[] colIdx = m.colIdx();
+		double[] values = m.values();
+		for(int i = 0; i < m.rows(); i++)
+			writeRow(colIdx, values, rowPtr[i], rowPtr[i + 1], labels[i]);
+	}
+	/**
+	 * Parses the text, builds its TF vector from the dictionary and writes it as the next row. 
+	 * Terms which are not in the dictionary are skipped.
+	 * @param text
+	 * @param parser
+	 * @param dict
+	 * @param label
+	 * @throws IOException
+	 */
+	public void write(String text, Parser parser, Dictionary dict, int label) throws IOException{
+		write(dict.toVector(parser.parse(text)), label);
+	}
+	/**
+	 * Flushes both files. The size line "rows columns 0" is appended, so spconvert builds a matrix with 
+	 * one row per label even when the last rows are empty.
+	 */
+	@Override
+	public void close() throws IOException{
+		try{
+			if(rows > 0){
+				ensureRoom(dataChannel, dataBuffer, 3 * MAX_NUMBER_LENGTH);
+				putLong(dataBuffer, rows);
+				dataBuffer.put((byte) ' ');
+				putLong(dataBuffer, Math.max(columns, 1));
+				dataBuffer.put((byte) ' ');
+				dataBuffer.put((byte) '0');
+				dataBuffer.put((byte) '\n');
+			}
+			drain(dataChannel, dataBuffer);
+			drain(labelChannel, labelBuffer);
+		}finally{
+			dataChannel.close();
+			labelChannel.close();
+		}
+	}
+	
+	private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException{
+		if(buffer.remaining() < bytes)
+			drain(channel, buffer);
+	}
+	
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+	/**
+	 * Writes the decimal digits of a long
+	 */
+	private void putLong(ByteBuffer buffer, long value){
+		if(value == Long.MIN_VALUE){
+			putAscii(buffer, Long.toString(value));
+			return;
+		}
+		if(value < 0){
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int n = 0;
+		do{
+			digits[n++] = (byte) ('0' + value % 10);
+			value /= 10;
+		}while(value != 0);
+		while(n > 0)
+			buffer.put(digits[--n]);
+	}
+	/**
+	 * Writes a double with at most the configured number of decimals, trailing zeros dropped. 
+	 * Values too large for fixed point, or non zero values which would round to zero, are written by Double.toString.
+	 */
+	private void putDouble(ByteBuffer buffer, double value){
+		long scale = POWERS_OF_TEN[decimals];
+		if(Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE / (double) scale){
+			putAscii(buffer, Double.toString(value));
+			return;
+		}
+		long scaled = Math.round(Math.abs(value) * scale);
+		if(scaled == 0 && value != 0){
+			//below the last decimal, keep the value instead of writing a zero
+			putAscii(buffer, Double.toString(value));
+			return;
+		}
+		if(value < 0)
+			buffer.put((byte) '-');
+		putLong(buffer, scaled / scale);
+		long fraction = scaled % scale;
+		if(fraction == 0)
+			return;
+		int width = decimals;
+		while(fraction % 10 == 0){
+			fraction /= 10;
+			width--;
+		}
+		buffer.put((byte) '.');
+		for(int i = width - 1; i >= 0; i--){
+			digits[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		buffer.put(digits, 0, width);
+	}
+	
+	private static void putAscii(ByteBuffer buffer, String s){
+		for(int i = 0; i < s.length(); i++)
+			buffer.put((byte) s.charAt(i));
+	}
+}
@@ -54,6 +54,32 @@ class Stemmer
       for (int c = 0; c < wLen; c++) b[i++] = w[c];
    }
 
+   /** Adds length characters of w starting at offset. Used by the
+    * reusable stem(char[], int, int) and stem(CharSequence, int, int).
+    */
+
+   public void add(char[] w, int offset, int length)
+   {  if (i+length >= b.length)
+      {  char[] new_b = new char[i+length+INC];
+         for (int c = 0; c < i; c++) new_b[c] = b[c];
+         b = new_b;
+      }
+      for (int c = 0; c < length; c++) b[i++] = w[offset+c];
+   }
+
+   /** Adds length characters of w starting at offset, without copying
+    * w to an array first.
+    */
+
+   public void add(CharSequence w, int offset, int length)
+   {  if (i+length >= b.length)
+      {  char[] new_b = new char[i+length+INC];
+         for (int c = 0; c < i; c++) new_b[c] = b[c];
+         b = new_b;
+      }
+      for (int c = 0; c < length; c++) b[i++] = w.charAt(offset+c);
+   }
+
    /**
     * After a word has been stemmed, it can be retrieved by toString(),
     * or a reference to the internal buffer can be retrieved by getResultBuffer
@@ -327,6 +353,54 @@ class Stemmer
       if (k > 1) { step1(); step2(); step3(); step4(); step5(); step6(); }
       i_end = k+1; i = 0;
    }
+   /**
+    * Stems the word in w[offset, offset+length) into the internal buffer,
+    * discarding any characters added before. The result is read with
+    * getResultBuffer() and getResultLength(), nothing is allocated once the
+    * buffer is large enough, so one Stemmer can be reused for every token.
+    * Returns the length of the result.
+    */
+   public int stem(char[] w, int offset, int length)
+   {  i = 0;
+      add(w, offset, length);
+      stem();
+      return i_end;
+   }
+
+   /**
+    * Same as stem(char[], int, int) for a range of a CharSequence.
+    */
+   public int stem(CharSequence w, int offset, int length)
+   {  i = 0;
+      add(w, offset, length);
+      stem();
+      return i_end;
+   }
+
+   /**
+    * Stems a word with a reusable Stemmer and returns the word itself when
+    * stemming did not change it, so that only changed words allocate a String.
+    */
+   public String stemToString(String w)
+   {  int n = stem(w, 0, w.length());
+      if (n == w.length())
+      {  boolean same = true;
+         for (int c = 0; c < n && same; c++) same = b[c] == w.charAt(c);
+         if (same) return w;
+      }
+      return new String(b,0,n);
+   }
+
+   private static final ThreadLocal<Stemmer> STEMMERS = new ThreadLocal<Stemmer>()
+   {  protected Stemmer initialValue() { return new Stemmer(); }
+   };
+
+   /**
+    * Returns the Stemmer of the calling thread, to be reused for every word
+    * stemmed on that thread.
+    */
+   public static Stemmer forCurrentThread() { return STEMMERS.get(); }
+
    /**
     * A abstraction to stemming code taken from
     * http://tartarus.org/martin/PorterStemmer/java.txt
@@ -334,11 +408,7 @@ class Stemmer
     * @return
     */
    public static String stem(String subject){
-	   Stemmer s = new Stemmer();
-	   s.add(subject.toCharArray(), subject.length());
-	   s.stem();
-	   String res = s.toString();
-	   return res;
+	   return forCurrentThread().stemToString(subject);
    }
    
 }
\ No newline at end of file
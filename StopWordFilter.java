@@ -0,0 +1,164 @@
+package text.vectorization;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A compact, immutable set of stop words which is probed with characters instead of Strings.
+ * Besides the lowercased words it can hold their Porter stems and WordNet lemmas, computed once at load time, 
+ * so a parser can filter before or after stemming without pre-stemmed lists. Words are kept in an open 
+ * addressing table, a lookup on a token buffer is one hash and one probe sequence and allocates nothing.
+ * @author Apurv
+ */
+public class StopWordFilter {
+	
+	/**
+	 * A standard English stop word list
+	 */
+	public static final List<String> ENGLISH = Collections.unmodifiableList(Arrays.asList(
+		"a", "about", "above", "after", "again", "against", "all", "am", "an", "and", "any", "are", "aren't", "as", 
+		"at", "be", "because", "been", "before", "being", "below", "between", "both", "but", "by", "can", "can't", 
+		"cannot", "could", "couldn't", "did", "didn't", "do", "does", "doesn't", "doing", "don't", "down", "during", 
+		"each", "few", "for", "from", "further", "had", "hadn't", "has", "hasn't", "have", "haven't", "having", "he", 
+		"he'd", "he'll", "he's", "her", "here", "here's", "hers", "herself", "him", "himself", "his", "how", "how's", 
+		"i", "i'd", "i'll", "i'm", "i've", "if", "in", "into", "is", "isn't", "it", "it's", "its", "itself", "let's", 
+		"me", "more", "most", "mustn't", "my", "myself", "no", "nor", "not", "of", "off", "on", "once", "only", "or", 
+		"other", "ought", "our", "ours", "ourselves", "out", "over", "own", "same", "shan't", "she", "she'd", 
+		"she'll", "she's", "should", "shouldn't", "so", "some", "such", "than", "that", "that's", "the", "their", 
+		"theirs", "them", "themselves", "then", "there", "there's", "these", "they", "they'd", "they'll", "they're", 
+		"they've", "this", "those", "through", "to", "too", "under", "until", "up", "very", "was", "wasn't", "we", 
+		"we'd", "we'll", "we're", "we've", "were", "weren't", "what", "what's", "when", "when's", "where", "where's", 
+		"which", "while", "who", "who's", "whom", "why", "why's", "with", "won't", "would", "wouldn't", "you", 
+		"you'd", "you'll", "you're", "you've", "your", "yours", "yourself", "yourselves"
+	));
+	
+	private char[][] table;
+	
+	private int[] hashes;
+	
+	private int size;
+	/**
+	 * Builds the filter from the lowercased words.
+	 * @param words
+	 * @param stemmed -- also add the Porter stem of every word
+	 * @param lemmatized -- also add the WordNet lemma of every word, this loads the shared lemmatiser
+	 */
+	public StopWordFilter(Iterable<String> words, boolean stemmed, boolean lemmatized){
+		HashSet<String> forms = new HashSet<String>();
+		Stemmer stemmer = new Stemmer();
+		for(String w : words){
+			String s = w.toLowerCase();
+			forms.add(s);
+			if(stemmed)
+				forms.add(stemmer.stemToString(s));
+			if(lemmatized){
+				String lemma = SharedLemmatiser.lemma(s);
+				if(lemma != null)
+					forms.add(lemma);
+			}
+		}
+		int capacity = 16;
+		while(capacity < forms.size() * 2)
+			capacity <<= 1;
+		table = new char[capacity][];
+		hashes = new int[capacity];
+		for(String s : forms)
+			insert(s.toCharArray());
+	}
+	/**
+	 * The bundled English list with the Porter stems of its words
+	 * @return
+	 */
+	public static StopWordFilter english(){
+		return new StopWordFilter(ENGLISH, true, false);
+	}
+	/**
+	 * Checks if buffer[offset, offset + length) is a stop word
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public boolean contains(char[] buffer, int offset, int length){
+		int h = 0;
+		for(int i = 0; i < length; i++)
+			h = 31 * h + buffer[offset + i];
+		int mask = table.length - 1;
+		for(int slot = spread(h) & mask; table[slot] != null; slot = (slot + 1) & mask){
+			if(hashes[slot] == h && equals(table[slot], buffer, offset, length))
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * Checks if the characters of s are a stop word
+	 * @param s
+	 * @return
+	 */
+	public boolean contains(CharSequence s){
+		int length = s.length();
+		int h = 0;
+		for(int i = 0; i < length; i++)
+			h = 31 * h + s.charAt(i);
+		int mask = table.length - 1;
+		for(int slot = spread(h) & mask; table[slot] != null; slot = (slot + 1) & mask){
+			char[] word = table[slot];
+			if(hashes[slot] != h || word.length != length)
+				continue;
+			int i = 0;
+			while(i < length && word[i] == s.charAt(i))
+				i++;
+			if(i == length)
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * @return the number of distinct forms in the filter
+	 */
+	public int size(){
+		return size;
+	}
+	/**
+	 * Copies the forms to a HashSet, for parsers which take a set in setStopWords
+	 * @return
+	 */
+	public HashSet<String> toHashSet(){
+		HashSet<String> res = new HashSet<String>();
+		for(char[] word : table){
+			if(word != null)
+				res.add(new String(word));
+		}
+		return res;
+	}
+	
+	private void insert(char[] word){
+		int h = 0;
+		for(char c : word)
+			h = 31 * h + c;
+		int mask = table.length - 1;
+		int slot = spread(h) & mask;
+		while(table[slot] != null)
+			slot = (slot + 1) & mask;
+		table[slot] = word;
+		hashes[slot] = h;
+		size++;
+	}
+	
+	private static int spread(int h){
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private static boolean equals(char[] word, char[] buffer, int offset, int length){
+		if(word.length != length)
+			return false;
+		for(int i = 0; i < length; i++){
+			if(word[i] != buffer[offset + i])
+				return false;
+		}
+		return true;
+	}
+}
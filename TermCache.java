@@ -0,0 +1,191 @@
+package text.vectorization;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread safe cache of word to root form, for stems and lemmas.
+ * Keys are spread over stripes with their own lock. Each stripe is a segmented LRU: new words enter a probation 
+ * segment and move to a protected segment on their second hit, so a burst of rare words can not flush the 
+ * frequent ones. The least recently used probation word is evicted when a stripe is full.
+ * Hits, misses and evictions are counted.
+ * @author Apurv
+ */
+public class TermCache {
+	
+	/**
+	 * default capacity of the shared caches, can be set with the system property text.vectorization.termCacheCapacity
+	 */
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("text.vectorization.termCacheCapacity", 1 << 17);
+	/**
+	 * shared cache of Porter stems
+	 */
+	public static final TermCache STEMS = new TermCache(DEFAULT_CAPACITY);
+	/**
+	 * shared cache of WordNet lemmas
+	 */
+	public static final TermCache LEMMAS = new TermCache(DEFAULT_CAPACITY);
+	
+	private static final int STRIPES = 16;
+	
+	private final Stripe[] stripes;
+	
+	private final int capacity;
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private final LongAdder evictions = new LongAdder();
+	
+	public TermCache(int capacity){
+		if(capacity < STRIPES)
+			throw new IllegalArgumentException("capacity must be at least " + STRIPES);
+		this.capacity = capacity;
+		this.stripes = new Stripe[STRIPES];
+		for(int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe(capacity / STRIPES);
+	}
+	/**
+	 * Gets the cached root form of a word
+	 * @param word
+	 * @return the root form, null if the word is not cached
+	 */
+	public String get(String word){
+		String res = stripeOf(word).get(word);
+		if(res == null)
+			misses.increment();
+		else
+			hits.increment();
+		return res;
+	}
+	/**
+	 * Caches the root form of a word
+	 * @param word
+	 * @param root
+	 */
+	public void put(String word, String root){
+		if(stripeOf(word).put(word, root))
+			evictions.increment();
+	}
+	/**
+	 * @return the maximum number of cached words
+	 */
+	public int capacity(){
+		return capacity;
+	}
+	/**
+	 * @return the number of cached words
+	 */
+	public int size(){
+		int res = 0;
+		for(Stripe s : stripes)
+			res += s.size();
+		return res;
+	}
+	
+	public long hits(){
+		return hits.sum();
+	}
+	
+	public long misses(){
+		return misses.sum();
+	}
+	
+	public long evictions(){
+		return evictions.sum();
+	}
+	/**
+	 * @return hits divided by lookups, 0 before the first lookup
+	 */
+	public double hitRate(){
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0d : (double) h / total;
+	}
+	/**
+	 * Removes every word and resets the counters
+	 */
+	public void clear(){
+		for(Stripe s : stripes)
+			s.clear();
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+	
+	private Stripe stripeOf(String word){
+		int h = word.hashCode() * 0x9E3779B9;
+		return stripes[(h >>> 16) & (STRIPES - 1)];
+	}
+	/**
+	 * One lock and one segmented LRU. Both segments are access ordered LinkedHashMaps.
+	 */
+	private static class Stripe {
+		
+		private final LinkedHashMap<String, String> probation = new LinkedHashMap<String, String>(16, 0.75f, true);
+		
+		private final LinkedHashMap<String, String> protectedSegment = new LinkedHashMap<String, String>(16, 0.75f, true);
+		
+		private final int capacity;
+		
+		private final int protectedCapacity;
+		
+		private Stripe(int capacity){
+			this.capacity = capacity;
+			//most of the space goes to words seen at least twice
+			this.protectedCapacity = capacity * 4 / 5;
+		}
+		
+		private synchronized String get(String word){
+			String res = protectedSegment.get(word);
+			if(res != null)
+				return res;
+			res = probation.remove(word);
+			if(res == null)
+				return null;
+			//second hit, promote and demote the least recently used protected word if needed
+			protectedSegment.put(word, res);
+			if(protectedSegment.size() > protectedCapacity){
+				Entry<String, String> eldest = removeEldest(protectedSegment);
+				probation.put(eldest.getKey(), eldest.getValue());
+			}
+			return res;
+		}
+		/**
+		 * Returns true if a word was evicted to make room
+		 */
+		private synchronized boolean put(String word, String root){
+			if(protectedSegment.containsKey(word)){
+				protectedSegment.put(word, root);
+				return false;
+			}
+			probation.put(word, root);
+			if(probation.size() + protectedSegment.size() > capacity){
+				removeEldest(probation.isEmpty() ? protectedSegment : probation);
+				return true;
+			}
+			return false;
+		}
+		
+		private synchronized int size(){
+			return probation.size() + protectedSegment.size();
+		}
+		
+		private synchronized void clear(){
+			probation.clear();
+			protectedSegment.clear();
+		}
+		
+		private static Entry<String, String> removeEldest(LinkedHashMap<String, String> map){
+			Iterator<Entry<String, String>> iter = map.entrySet().iterator();
+			Entry<String, String> e = iter.next();
+			Entry<String, String> eldest = new SimpleImmutableEntry<String, String>(e.getKey(), e.getValue());
+			iter.remove();
+			return eldest;
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package text.vectorization;
+
+/**
+ * Receives tokens from Parser.parse(CharSequence, TokenConsumer) as soon as they are found.
+ * The token is a slice of a buffer owned by the parser. The buffer is reused for the next token, 
+ * so copy the characters if they are needed after token returns.
+ * @author Apurv
+ *
+ */
+public interface TokenConsumer {
+
+	public void token(char[] buffer, int offset, int length);
+	
+}
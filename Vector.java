@@ -1,23 +1,86 @@
 package text.vectorization;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 /**
  * This class represents a vector of String, Integer.
  * It supports put, get, norm and dot product operations.
+ * Storage is primitive: while the vector is being built keys and values live in an open addressing
+ * int to double table, after freeze() they are kept as sorted parallel arrays.
  * @author Apurv
  */
 public class Vector {
 	/**
-	 * Storage of the vector
+	 * Marker for a free slot in the key table. This key cannot be stored in the vector.
 	 */
-	private HashMap<Integer, Double> vector;
+	private static final int EMPTY = Integer.MIN_VALUE;
+	/**
+	 * Initial number of slots in the key table, must be a power of two
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * Keys of the vector. Hash table while building, sorted array of length size once frozen.
+	 */
+	private int[] keys;
+	/**
+	 * Values of the vector, parallel to keys
+	 */
+	private double[] values;
+	/**
+	 * Number of elements in the vector
+	 */
+	private int size;
+	/**
+	 * True once the vector is frozen to sorted arrays
+	 */
+	private boolean frozen;
+	/**
+	 * Cached L2 norm of a frozen vector, negative until it is first computed
+	 */
+	private double norm = -1d;
+	/**
+	 * Once the smaller sorted vector is this many times shorter, dot product gallops through the larger one
+	 */
+	private static final int GALLOP_RATIO = 16;
 	/**
 	 * Constructor
 	 */
 	public Vector(){
-		vector = new HashMap<Integer, Double>();
+		this(INITIAL_CAPACITY);
+	}
+	/**
+	 * Constructor with expected number of elements, avoids rehashing while the vector is built.
+	 * @param expectedSize
+	 */
+	public Vector(int expectedSize){
+		int capacity = INITIAL_CAPACITY;
+		while(capacity < expectedSize * 2)
+			capacity <<= 1;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		size = 0;
+		frozen = false;
+	}
+	/**
+	 * Creates a frozen vector from sorted keys[from, to) and their values, the arrays are copied.
+	 * Keys must be strictly increasing.
+	 */
+	static Vector frozen(int[] keys, double[] values, int from, int to){
+		return new Vector(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(values, from, to));
+	}
+	/**
+	 * Frozen vector over the given sorted arrays, no hash table is allocated
+	 */
+	private Vector(int[] keys, double[] values){
+		this.keys = keys;
+		this.values = values;
+		this.size = keys.length;
+		this.frozen = true;
 	}
 	/**
 	 * put the key value pair in the vector. This put method is incremental, which means if 
@@ -26,11 +89,7 @@ public class Vector {
 	 * @param val
 	 */
 	public void put(Integer key, Double val){
-		if(vector.containsKey(key)){
-			vector.put(key, vector.get(key) + val);
-			return;
-		}			
-		vector.put(key, val);
+		increment(key, val);
 	}
 	/**
 	 * Puts the key value pair. If it already exits then overwrites.
@@ -38,7 +97,7 @@ public class Vector {
 	 * @param val
 	 */
 	public void putReplace(Integer key, Double val){
-		vector.put(key, val);
+		set(key, val);
 	}
 	/**
 	 * Get the corresponding value of the key
@@ -46,9 +105,10 @@ public class Vector {
 	 * @return
 	 */
 	public Double get(Integer key){
-		if(vector.containsKey(key))
-			return vector.get(key);
-		return null;
+		int slot = slotOf(key);
+		if(slot < 0)
+			return null;
+		return values[slot];
 	}
 	/**
 	 * Method to check if an element exists in the vector
@@ -56,10 +116,86 @@ public class Vector {
 	 * @return
 	 */
 	public boolean contains(Integer key){
-		if(this.vector.containsKey(key))
-			return true;
-		else
-			return false;
+		return slotOf(key) >= 0;
+	}
+	/**
+	 * Primitive version of put. Adds val to the value stored for key.
+	 * @param key
+	 * @param val
+	 */
+	public void increment(int key, double val){
+		int slot = insertionSlot(key);
+		values[slot] += val;
+	}
+	/**
+	 * Primitive version of putReplace. Overwrites the value stored for key.
+	 * @param key
+	 * @param val
+	 */
+	public void set(int key, double val){
+		int slot = insertionSlot(key);
+		values[slot] = val;
+	}
+	/**
+	 * Primitive version of get. Returns 0 if the key is not in the vector.
+	 * @param key
+	 * @return
+	 */
+	public double value(int key){
+		int slot = slotOf(key);
+		if(slot < 0)
+			return 0d;
+		return values[slot];
+	}
+	/**
+	 * Freezes the vector. Keys are sorted and stored with their values in two arrays of exactly size elements.
+	 * A frozen vector can not be modified any more through put, only rescaled in place by applyTFIDF and normalizeL2InPlace. 
+	 * Calling freeze on a frozen vector does nothing.
+	 * @return this vector
+	 */
+	public Vector freeze(){
+		if(frozen)
+			return this;
+		int[] sortedKeys = new int[size];
+		int n = 0;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] != EMPTY)
+				sortedKeys[n++] = keys[i];
+		}
+		Arrays.sort(sortedKeys);
+		double[] sortedValues = new double[size];
+		for(int i = 0; i < size; i++){
+			sortedValues[i] = values[slotOf(sortedKeys[i])];
+		}
+		keys = sortedKeys;
+		values = sortedValues;
+		frozen = true;
+		return this;
+	}
+	/**
+	 * Checks if the vector has been frozen
+	 * @return
+	 */
+	public boolean isFrozen(){
+		return frozen;
+	}
+	/**
+	 * Key of the i-th element of a frozen vector. Keys are in increasing order.
+	 * @param i position between 0 and size() - 1
+	 * @return
+	 */
+	public int keyAt(int i){
+		checkFrozen();
+		return keys[i];
+	}
+	/**
+	 * Value of the i-th element of a frozen vector.
+	 * @param i position between 0 and size() - 1
+	 * @return
+	 */
+	public double valueAt(int i){
+		checkFrozen();
+		return values[i];
 	}
 	/**
 	 * Method to compute dotProduct of the two vectors.
@@ -70,28 +206,19 @@ public class Vector {
 	 * @throws Exception 
 	 */
 	public Double dotProduct(Vector b) throws Exception{
-		Double res = 0.0;
-		Vector a = this;
 		if(b == null)
 			throw new Exception("Null vector not allowed");
-		//iterate on the smaller vector
-		if(a.size() <= b.size()){
-			Iterator<Entry<Integer, Double>> iter = a.iterator();
-			while(iter.hasNext()){
-				Entry<Integer, Double> e = iter.next();
-				if(b.contains(e.getKey())){
-					res += a.get(e.getKey()) * b.get(e.getKey());
-				}
-			}
-		}else{
-			Iterator<Entry<Integer, Double>> iter = b.iterator();
-			while(iter.hasNext()){
-				Entry<Integer, Double> e = iter.next();
-				if(a.contains(e.getKey())){
-					res += a.get(e.getKey()) * b.get(e.getKey());
-				}
-			}
-		}		
+		Vector a = this;
+		if(a.frozen && b.frozen)
+			return sortedDotProduct(a, b);
+		//iterate on the smaller vector and probe the larger one
+		Vector small = a.size <= b.size ? a : b;
+		Vector large = small == a ? b : a;
+		double res = 0d;
+		for(int i = 0; i < small.keys.length; i++){
+			if(small.keys[i] != EMPTY)
+				res += small.values[i] * large.value(small.keys[i]);
+		}
 		return res;
 	}
 	/**
@@ -114,14 +241,14 @@ public class Vector {
 	 * @return
 	 */
 	public Integer size(){
-		return vector.size();
+		return size;
 	}
 	/**
 	 * Method to iterate over vector
 	 * @return
 	 */
 	public Iterator<Entry<Integer, Double>> iterator(){
-		return vector.entrySet().iterator();
+		return new EntryIterator();
 	}
 	/**
 	 * Method to compute norm of a vector. This is L2 norm
@@ -129,8 +256,18 @@ public class Vector {
 	 * @throws Exception 
 	 */
 	public Double norm() throws Exception{
-		Vector a = this;
-		return Math.sqrt(a.dotProduct(a));
+		if(frozen && norm >= 0)
+			return norm;
+		double sum = 0d;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] != EMPTY)
+				sum += values[i] * values[i];
+		}
+		double res = Math.sqrt(sum);
+		//a frozen vector can not change, so its norm is computed only once
+		if(frozen)
+			norm = res;
+		return res;
 	}
 	/**
 	 * This method scales a vector by a scalar. It is product of a scalar and vector
@@ -190,18 +327,253 @@ public class Vector {
 	 * @param dict -- dictionary which has the idf values
 	 * @param map 
 	 * @return
+	 * @deprecated looks up every idf by term string, use applyTFIDF. Dictionary.term replaces the map.
 	 */
+	@Deprecated
 	public Vector makeTFIDFvector(Dictionary dict, HashMap<Integer, String> map) {
 		Vector a = this;
-		Vector v = new Vector();
-		Iterator<Entry<Integer, Double>> iter = a.iterator();
-		while(iter.hasNext()){
-			Entry<Integer, Double> e = iter.next();
-			if(dict.contains(map.get(e.getKey())))
-				System.out.println(map.get(e.getKey()));
-				System.out.println(dict.idf(map.get(e.getKey())));
-				v.put(e.getKey(), dict.idf(map.get(e.getKey())) * e.getValue());
+		Vector v = new Vector(a.size);
+		for(int i = 0; i < a.keys.length; i++){
+			if(a.keys[i] == EMPTY)
+				continue;
+			String term = map.get(a.keys[i]);
+			if(term != null && dict.contains(term))
+				v.increment(a.keys[i], dict.idf(term) * a.values[i]);
 		}
 		return v;
 	}
-}
+	/**
+	 * Converts this TF vector to a TF IDF vector in place. Keys are term ids of the dictionary and idf is read from 
+	 * its table by id, so call freezeIdf on a Dictionary first. Nothing is allocated.
+	 * @param dict -- dictionary which has the idf values, a Dictionary or a MappedDictionary
+	 * @return this vector
+	 */
+	public Vector applyTFIDF(IdfSource dict){
+		return applyTFIDF(dict, false);
+	}
+	/**
+	 * Converts this TF vector to a TF IDF vector in place and optionally normalizes it by its L2 norm.
+	 * A vector whose weights are all zero is left as it is.
+	 * @param dict -- dictionary which has the idf values
+	 * @param normalize -- true to divide every weight by the L2 norm of the TF IDF vector
+	 * @return this vector
+	 */
+	public Vector applyTFIDF(IdfSource dict, boolean normalize){
+		double sum = 0d;
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] == EMPTY)
+				continue;
+			values[i] *= dict.idf(keys[i]);
+			sum += values[i] * values[i];
+		}
+		norm = -1d;
+		if(normalize)
+			scaleInPlace(sum);
+		return this;
+	}
+	/**
+	 * Normalizes the vector by its L2 norm in place, unlike normalizeL2 nothing is allocated. 
+	 * A vector whose weights are all zero is left as it is.
+	 * @return this vector
+	 */
+	public Vector normalizeL2InPlace(){
+		double sum = 0d;
+		for(int i = 0; i < keys.length; i++){
+			sum += values[i] * values[i];
+		}
+		scaleInPlace(sum);
+		return this;
+	}
+	/**
+	 * Divides every value by the square root of sumOfSquares, if it is not zero
+	 */
+	private void scaleInPlace(double sumOfSquares){
+		if(sumOfSquares <= 0)
+			return;
+		double inverse = 1 / Math.sqrt(sumOfSquares);
+		for(int i = 0; i < keys.length; i++){
+			values[i] *= inverse;
+		}
+		norm = -1d;
+	}
+	/**
+	 * Renumbers the keys of the vector with a remap table from Dictionary.prune. 
+	 * Keys mapped to 0 or outside the table are dropped. A frozen vector gives a frozen result.
+	 * @param remap -- the new key of every old key
+	 * @return a new vector
+	 */
+	public Vector remap(int[] remap){
+		Vector res = new Vector(size);
+		for(int i = 0; i < keys.length; i++){
+			int key = keys[i];
+			if(key == EMPTY || key < 0 || key >= remap.length || remap[key] == 0)
+				continue;
+			res.increment(remap[key], values[i]);
+		}
+		return frozen ? res.freeze() : res;
+	}
+	/**
+	 * Renumbers every vector of the array in place of the old one, see remap(int[])
+	 * @param vectors
+	 * @param remap
+	 */
+	public static void remap(Vector[] vectors, int[] remap){
+		for(int i = 0; i < vectors.length; i++){
+			if(vectors[i] != null)
+				vectors[i] = vectors[i].remap(remap);
+		}
+	}
+	/**
+	 * Dot product of two frozen vectors. Sorted keys are merge joined, or when the sizes are very 
+	 * uneven every key of the smaller vector is searched in the larger one by galloping.
+	 */
+	private static double sortedDotProduct(Vector a, Vector b){
+		Vector small = a.size <= b.size ? a : b;
+		Vector large = small == a ? b : a;
+		double res = 0d;
+		int i = 0, j = 0;
+		if(large.size / GALLOP_RATIO > small.size){
+			while(i < small.size && j < large.size){
+				j = gallop(large.keys, j, large.size, small.keys[i]);
+				if(j < large.size && large.keys[j] == small.keys[i])
+					res += small.values[i] * large.values[j];
+				i++;
+			}
+			return res;
+		}
+		while(i < small.size && j < large.size){
+			int ki = small.keys[i];
+			int kj = large.keys[j];
+			if(ki == kj){
+				res += small.values[i++] * large.values[j++];
+			}else if(ki < kj){
+				i++;
+			}else{
+				j++;
+			}
+		}
+		return res;
+	}
+	/**
+	 * Returns the first position at or after from whose key is not smaller than key.
+	 * Steps grow exponentially before a binary search narrows the range.
+	 */
+	private static int gallop(int[] keys, int from, int to, int key){
+		int step = 1;
+		int lo = from;
+		int hi = from;
+		while(hi < to && keys[hi] < key){
+			lo = hi + 1;
+			hi += step;
+			step <<= 1;
+		}
+		hi = Math.min(hi, to);
+		int pos = Arrays.binarySearch(keys, lo, hi, key);
+		return pos >= 0 ? pos : -pos - 1;
+	}
+	/**
+	 * Finds the slot holding key, -1 if key is not in the vector
+	 */
+	private int slotOf(int key){
+		if(frozen)
+			return Math.max(Arrays.binarySearch(keys, 0, size, key), -1);
+		if(key == EMPTY)
+			return -1;
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(keys[slot] != EMPTY){
+			if(keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	/**
+	 * Finds the slot for key, inserting key with value 0 if it is not present yet
+	 */
+	private int insertionSlot(int key){
+		if(frozen)
+			throw new IllegalStateException("Vector is frozen, it can not be modified");
+		if(key == EMPTY)
+			throw new IllegalArgumentException("Key " + key + " can not be stored in a vector");
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(keys[slot] != EMPTY){
+			if(keys[slot] == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		//keep the load factor at or below one half
+		if((size + 1) * 2 > keys.length){
+			rehash(keys.length << 1);
+			return insertionSlot(key);
+		}
+		keys[slot] = key;
+		size++;
+		return slot;
+	}
+	/**
+	 * Moves all elements to a new table of the given capacity
+	 */
+	private void rehash(int capacity){
+		int[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new double[capacity];
+		int mask = capacity - 1;
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] == EMPTY)
+				continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while(keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+	/**
+	 * Spreads the bits of the key so that consecutive ids do not cluster
+	 */
+	private static int hash(int key){
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private void checkFrozen(){
+		if(!frozen)
+			throw new IllegalStateException("Vector must be frozen first");
+	}
+	/**
+	 * Iterator over the occupied slots. Entries are created on demand.
+	 */
+	private class EntryIterator implements Iterator<Entry<Integer, Double>>{
+		
+		private int next = advance(0);
+		
+		private int advance(int from){
+			while(from < keys.length && keys[from] == EMPTY)
+				from++;
+			return from;
+		}
+		
+		@Override
+		public boolean hasNext(){
+			return next < keys.length;
+		}
+		
+		@Override
+		public Entry<Integer, Double> next(){
+			if(!hasNext())
+				throw new NoSuchElementException();
+			Entry<Integer, Double> e = new SimpleImmutableEntry<Integer, Double>(keys[next], values[next]);
+			next = advance(next + 1);
+			return e;
+		}
+		
+		@Override
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+package text.vectorization;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class vectorizes a corpus that does not fit in memory, reading it from disk twice.
+ * The first pass builds the dictionary and the document frequencies, the second pass writes a TF or TF IDF row 
+ * per document with SparseMatrixWriter. Only the dictionary and one batch of documents are held in memory.
+ * The corpus file has one document per line, the integer label, a tab and the text.
+ * With a ParallelVectorizer each batch is parsed and vectorized on several threads, rows keep the corpus order.
+ * @author Apurv
+ */
+public class VectorizationPipeline {
+	
+	private Parser parser;
+	
+	private ParallelVectorizer vectorizer;
+	/**
+	 * number of documents held in memory at a time
+	 */
+	private int batchSize;
+	
+	private boolean TFIDF;
+	
+	private boolean NORMALIZE;
+	
+	private Dictionary.IdfSmoothing smoothing;
+	
+	public VectorizationPipeline(Parser parser, boolean tfidf, boolean normalize){
+		this.parser = parser;
+		this.TFIDF = tfidf;
+		this.NORMALIZE = normalize;
+		this.batchSize = 1000;
+		this.smoothing = Dictionary.IdfSmoothing.PLAIN;
+	}
+	
+	public VectorizationPipeline(Parser parser){
+		this(parser, false, false);
+	}
+	
+	public VectorizationPipeline(ParallelVectorizer vectorizer, boolean tfidf, boolean normalize){
+		this((Parser) null, tfidf, normalize);
+		this.vectorizer = vectorizer;
+	}
+	/**
+	 * @param batchSize the number of documents held in memory at a time
+	 */
+	public void setBatchSize(int batchSize) {
+		if(batchSize < 1)
+			throw new IllegalArgumentException("batch size must be positive");
+		this.batchSize = batchSize;
+	}
+	/**
+	 * @param smoothing the idf variant used for TF IDF rows
+	 */
+	public void setSmoothing(Dictionary.IdfSmoothing smoothing) {
+		this.smoothing = smoothing;
+	}
+	/**
+	 * Runs both passes over the corpus. 
+	 * @param corpusFile
+	 * @param dataFile -- sparse matrix output
+	 * @param labelFile -- label output
+	 * @return the dictionary built in the first pass
+	 * @throws IOException
+	 */
+	public Dictionary run(String corpusFile, String dataFile, String labelFile) throws IOException{
+		Dictionary dict = buildDictionary(corpusFile);
+		vectorize(corpusFile, dict, dataFile, labelFile);
+		return dict;
+	}
+	/**
+	 * First pass. Streams the corpus and adds every document to a new dictionary.
+	 * @param corpusFile
+	 * @return
+	 * @throws IOException
+	 */
+	public Dictionary buildDictionary(String corpusFile) throws IOException{
+		Dictionary dict = new Dictionary();
+		Batch batch = new Batch(batchSize);
+		BufferedReader reader = Files.newBufferedReader(Paths.get(corpusFile), StandardCharsets.UTF_8);
+		try{
+			while(batch.read(reader) > 0){
+				if(vectorizer != null){
+					vectorizer.addDocuments(batch.textList(), dict);
+					continue;
+				}
+				for(int i = 0; i < batch.size; i++)
+					dict.addDocument(parser.parse(batch.texts[i]));
+			}
+		}finally{
+			reader.close();
+		}
+		return dict;
+	}
+	/**
+	 * Second pass. Streams the corpus and writes one row per document, in corpus order.
+	 * Terms which are not in the dictionary are skipped.
+	 * @param corpusFile
+	 * @param dict -- dictionary from the first pass
+	 * @param dataFile -- sparse matrix output
+	 * @param labelFile -- label output
+	 * @return the number of rows written
+	 * @throws IOException
+	 */
+	public int vectorize(String corpusFile, Dictionary dict, String dataFile, String labelFile) throws IOException{
+		if(TFIDF)
+			dict.freezeIdf(smoothing);
+		Batch batch = new Batch(batchSize);
+		try(BufferedReader reader = Files.newBufferedReader(Paths.get(corpusFile), StandardCharsets.UTF_8);
+				SparseMatrixWriter writer = new SparseMatrixWriter(dataFile, labelFile)){
+			writer.setColumns(dict.size());
+			while(batch.read(reader) > 0){
+				if(vectorizer != null){
+					Vector[] vectors = vectorizer.vectorize(batch.textList(), dict, TFIDF, NORMALIZE);
+					for(int i = 0; i < batch.size; i++)
+						writer.write(vectors[i], batch.labels[i]);
+					continue;
+				}
+				for(int i = 0; i < batch.size; i++)
+					writer.write(vectorize(batch.texts[i], dict), batch.labels[i]);
+			}
+			return writer.getRows();
+		}
+	}
+	/**
+	 * Builds the TF vector of a document, converted to TF IDF if the pipeline is set up for it.
+	 * The dictionary idf table must be frozen for TF IDF.
+	 * @param text
+	 * @param dict
+	 * @return
+	 */
+	public Vector vectorize(String text, Dictionary dict){
+		if(parser == null)
+			return vectorizer.vectorize(Collections.singletonList(text), dict, TFIDF, NORMALIZE)[0];
+		Vector v = dict.toVector(parser.parse(text));
+		if(TFIDF)
+			v.applyTFIDF(dict, NORMALIZE);
+		else if(NORMALIZE)
+			v.normalizeL2InPlace();
+		return v.freeze();
+	}
+	/**
+	 * A bounded batch of documents read from the corpus. The arrays are reused for every batch.
+	 */
+	private static class Batch {
+		
+		private int[] labels;
+		
+		private String[] texts;
+		
+		private int size;
+		
+		private int line;
+		
+		private Batch(int capacity){
+			labels = new int[capacity];
+			texts = new String[capacity];
+		}
+		/**
+		 * Reads the next documents, returns how many were read, 0 at the end of the corpus
+		 */
+		private int read(BufferedReader reader) throws IOException{
+			size = 0;
+			String s;
+			while(size < texts.length && (s = reader.readLine()) != null){
+				line++;
+				if(s.isEmpty())
+					continue;
+				int tab = s.indexOf('\t');
+				try{
+					labels[size] = Integer.parseInt(s.substring(0, tab < 0 ? s.length() : tab).trim());
+				}catch(NumberFormatException ex){
+					throw new IOException("Line " + line + " does not start with an integer label", ex);
+				}
+				texts[size] = tab < 0 ? "" : s.substring(tab + 1);
+				size++;
+			}
+			for(int i = size; i < texts.length; i++)
+				texts[i] = null;
+			return size;
+		}
+		
+		private List<String> textList(){
+			return Arrays.asList(texts).subList(0, size);
+		}
+	}
+}